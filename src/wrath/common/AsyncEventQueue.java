@@ -0,0 +1,287 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers events to slow listeners, such as logging, analytics or persistence, on background threads instead of the thread that fires them.
+ * The queue is split into lanes, each a bounded ring buffer with one thread of its own. Every event has a key, for example the entity or script it is about,
+ * and events with the same key always go through the same lane, so they are delivered in the order they were fired.
+ * Listeners are added with {@link wrath.common.EventBus#addAsync(java.lang.Object, wrath.common.AsyncEventQueue, int)}.
+ * @author Trent Spears
+ */
+public final class AsyncEventQueue implements Closeable
+{
+    private final Lane[] lanes;
+    private final Backpressure backpressure;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile boolean closed = false;
+    
+    /**
+     * Constructor. New events are dropped when a lane is full ({@link wrath.common.Backpressure#DROP}).
+     * @param name The name of the queue, used to name its threads.
+     * @param capacity The amount of events each lane can hold.
+     * @param threads The amount of lanes, each with its own thread. Listeners must be thread-safe if this is more than 1.
+     */
+    public AsyncEventQueue(String name, int capacity, int threads)
+    {
+        this(name, capacity, threads, Backpressure.DROP);
+    }
+    
+    /**
+     * Constructor.
+     * @param name The name of the queue, used to name its threads.
+     * @param capacity The amount of events each lane can hold.
+     * @param threads The amount of lanes, each with its own thread. Listeners must be thread-safe if this is more than 1.
+     * @param backpressure What to do with new events when a lane is full.
+     */
+    public AsyncEventQueue(String name, int capacity, int threads, Backpressure backpressure)
+    {
+        if(capacity < 1 || threads < 1) throw new IllegalArgumentException("AsyncEventQueue needs a capacity and at least one thread!");
+        this.backpressure = backpressure;
+        lanes = new Lane[threads];
+        for(int i = 0; i < threads; i++) lanes[i] = new Lane(capacity, "Wrath Event Queue " + name + " " + i);
+    }
+    
+    /**
+     * Stops accepting events. The events already waiting are still delivered before the threads stop.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        for(Lane lane : lanes) lane.wake();
+    }
+    
+    /**
+     * Gets the {@link wrath.common.Backpressure} mode of this queue.
+     * @return Returns what this queue does with new events when it is full.
+     */
+    public Backpressure getBackpressure()
+    {
+        return backpressure;
+    }
+    
+    /**
+     * Gets the amount of events that were merged into an event that was already waiting.
+     * @return Returns the amount of coalesced events.
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+    
+    /**
+     * Gets the amount of events that were dropped because the queue was full or closed.
+     * @return Returns the amount of dropped events.
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+    
+    /**
+     * Gets the amount of events waiting to be delivered.
+     * @return Returns the amount of events waiting in every lane.
+     */
+    public int getPendingCount()
+    {
+        int count = 0;
+        for(Lane lane : lanes) count += lane.size();
+        return count;
+    }
+    
+    /**
+     * Returns true if the queue has been closed, otherwise false.
+     * @return Returns whether or not the queue is closed.
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+    
+    /**
+     * Queues an event to be delivered to a listener.
+     * @param key The key to keep the order of, can be null.
+     * @param listener The listener to deliver the event to.
+     * @param event The handler method of the event.
+     * @param args The arguments of the event.
+     * @return Returns true if the event was queued or coalesced, false if it was dropped.
+     */
+    boolean post(Object key, Object listener, Method event, Object[] args)
+    {
+        if(closed)
+        {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return lanes[(hash & 0x7fffffff) % lanes.length].post(key, listener, event, args);
+    }
+    
+    private final class Lane implements Runnable
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Object[] keys;
+        private final Object[] listeners;
+        private final Method[] events;
+        private final Object[][] args;
+        private int head = 0;
+        private int size = 0;
+        
+        private Lane(int capacity, String name)
+        {
+            keys = new Object[capacity];
+            listeners = new Object[capacity];
+            events = new Method[capacity];
+            args = new Object[capacity][];
+            
+            Thread thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        private boolean post(Object key, Object listener, Method event, Object[] eventArgs)
+        {
+            lock.lock();
+            try
+            {
+                while(size == keys.length)
+                {
+                    if(backpressure == Backpressure.BLOCK && !closed)
+                    {
+                        notFull.awaitUninterruptibly();
+                        continue;
+                    }
+                    if(backpressure == Backpressure.COALESCE)
+                    {
+                        for(int i = size - 1; i >= 0; i--)
+                        {
+                            int slot = (head + i) % keys.length;
+                            if(events[slot] == event && listeners[slot] == listener && Objects.equals(keys[slot], key))
+                            {
+                                args[slot] = eventArgs;
+                                coalesced.incrementAndGet();
+                                return true;
+                            }
+                        }
+                    }
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                
+                int slot = (head + size) % keys.length;
+                keys[slot] = key;
+                listeners[slot] = listener;
+                events[slot] = event;
+                args[slot] = eventArgs;
+                size++;
+                notEmpty.signal();
+                return true;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        @Override
+        public void run()
+        {
+            while(true)
+            {
+                Object listener;
+                Method event;
+                Object[] eventArgs;
+                lock.lock();
+                try
+                {
+                    while(size == 0 && !closed) notEmpty.awaitUninterruptibly();
+                    if(size == 0) return;
+                    
+                    listener = listeners[head];
+                    event = events[head];
+                    eventArgs = args[head];
+                    keys[head] = null;
+                    listeners[head] = null;
+                    events[head] = null;
+                    args[head] = null;
+                    head = (head + 1) % keys.length;
+                    size--;
+                    notFull.signal();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+                
+                try
+                {
+                    event.invoke(listener, eventArgs);
+                }
+                catch(InvocationTargetException e)
+                {
+                    System.err.println("Exception thrown by async listener '" + listener.getClass().getName() + "' during '" + event.getName() + "'!");
+                    e.getCause().printStackTrace();
+                }
+                catch(IllegalAccessException | RuntimeException e)
+                {
+                    System.err.println("Could not deliver '" + event.getName() + "' to async listener '" + listener.getClass().getName() + "'!");
+                    e.printStackTrace();
+                }
+            }
+        }
+        
+        private int size()
+        {
+            lock.lock();
+            try
+            {
+                return size;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        private void wake()
+        {
+            lock.lock();
+            try
+            {
+                notEmpty.signalAll();
+                notFull.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+}
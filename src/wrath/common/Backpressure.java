@@ -0,0 +1,39 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common;
+
+/**
+ * Enumerator to describe what an {@link wrath.common.AsyncEventQueue} does with a new event when it is full.
+ * @author Trent Spears
+ */
+public enum Backpressure
+{
+    /**
+     * Blocks the thread firing the event until there is room in the queue. No event is lost, but a slow listener can hold up the tick.
+     */
+    BLOCK,
+    /**
+     * Replaces the newest waiting event of the same key, event type and listener with the new one. If there is no such event, the new event is dropped.
+     * Suited to events where only the latest state matters, such as movement.
+     */
+    COALESCE,
+    /**
+     * Drops the new event. This is the default when an {@link wrath.common.AsyncEventQueue} is created without a mode.
+     */
+    DROP;
+}
@@ -0,0 +1,368 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Thread-safe list of event handlers of one type, shared by everything in the engine that fires events.
+ * Each method of the handler interface is one event. The bus keeps an array of handlers for every event, holding only the handlers that react to it,
+ * and copies the arrays whenever a handler is added or removed, so firing an event only has to loop over the current array.
+ * This never allocates or locks, and when nobody listens for an event it costs a single empty loop.
+ * @param <H> The type of event handler.
+ * @author Trent Spears
+ */
+public final class EventBus<H>
+{
+    private final Class<H> type;
+    private final Method[] events;
+    private final H[] empty;
+    private final ArrayList<Entry<H>> entries = new ArrayList<>();
+    private volatile H[] handlers;
+    private volatile H[][] eventHandlers;
+    private EventProfiler profiler = null;
+    
+    /**
+     * Constructor.
+     * @param type The interface of event handler this bus holds.
+     */
+    @SuppressWarnings("unchecked")
+    public EventBus(Class<H> type)
+    {
+        if(!type.isInterface()) throw new IllegalArgumentException("EventBus handler type '" + type.getName() + "' is not an interface!");
+        this.type = type;
+        events = type.getMethods();
+        Arrays.sort(events, Comparator.comparing(Method::getName));
+        for(int i = 1; i < events.length; i++)
+            if(events[i].getName().equals(events[i - 1].getName()))
+                throw new IllegalArgumentException("EventBus handler type '" + type.getName() + "' has more than one event named '" + events[i].getName() + "'!");
+        
+        empty = (H[]) Array.newInstance(type, 0);
+        handlers = empty;
+        eventHandlers = (H[][]) Array.newInstance(type, events.length, 0);
+    }
+    
+    /**
+     * Adds a handler to the bus. A handler can be added more than once, and will then receive each event once per time it was added.
+     * If the handler type has default methods, the handler is only given the events whose method its class overrides.
+     * @param handler The handler to add.
+     */
+    public synchronized void add(H handler)
+    {
+        if(handler == null) return;
+        entries.add(new Entry<>(handler, handler, receives(handler), handler.getClass().getName()));
+        rebuild();
+    }
+    
+    /**
+     * Adds a handler that is fed from an {@link wrath.common.AsyncEventQueue} instead of being called on the thread that fires the event.
+     * Meant for slow listeners that should not hold up the tick. The arguments of an event must not be changed after it is fired, as they are read later on another thread.
+     * Like {@link #add(java.lang.Object)}, the handler is only given the events whose default method it overrides.
+     * @param handler The handler to add.
+     * @param queue The {@link wrath.common.AsyncEventQueue} to deliver the events through.
+     * @param keyArgument The index of the event argument to keep the order of, for example 1 for the {@link wrath.common.scripts.Script} of a script event. Set to -1 to keep a single order for every event.
+     * @return Returns the handler that was put on the bus, to remove it with {@link #remove(java.lang.Object)}.
+     */
+    public synchronized H addAsync(H handler, AsyncEventQueue queue, int keyArgument)
+    {
+        for(Method event : events)
+            if(event.getReturnType() != void.class)
+                throw new IllegalArgumentException("Event '" + event.getName() + "' of '" + type.getName() + "' returns a value and cannot be delivered asynchronously!");
+        
+        H proxy = type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, m, a) ->
+        {
+            if(m.getDeclaringClass() == Object.class) return m.invoke(handler, a);
+            queue.post(a != null && keyArgument >= 0 && keyArgument < a.length ? a[keyArgument] : null, handler, m, a);
+            return null;
+        }));
+        entries.add(new Entry<>(proxy, proxy, receives(handler), handler.getClass().getName() + " (async)"));
+        rebuild();
+        return proxy;
+    }
+    
+    /**
+     * Gets the index of an event, to get its handlers with {@link #getHandlers(int)}.
+     * Should be looked up once and stored, for example in a static field.
+     * @param name The name of the handler method of the event.
+     * @return Returns the index of the event.
+     */
+    public int getEvent(String name)
+    {
+        for(int i = 0; i < events.length; i++)
+            if(events[i].getName().equals(name)) return i;
+        throw new IllegalArgumentException("EventBus handler type '" + type.getName() + "' has no event named '" + name + "'!");
+    }
+    
+    /**
+     * Gets every handler currently on the bus, including the ones made for subscribed listeners.
+     * The array is shared and must not be modified.
+     * @return Returns the array of handlers currently on the bus.
+     */
+    public H[] getHandlers()
+    {
+        return handlers;
+    }
+    
+    /**
+     * Gets the handlers that react to an event, to fire the event to.
+     * The array is shared and must not be modified. Handlers added or removed while an event is being fired do not affect an array that was already taken.
+     * @param event The index of the event, from {@link #getEvent(java.lang.String)}.
+     * @return Returns the array of handlers of the event.
+     */
+    public H[] getHandlers(int event)
+    {
+        return eventHandlers[event];
+    }
+    
+    /**
+     * Returns true if there are no handlers on the bus, otherwise false.
+     * @return Returns whether or not the bus is empty.
+     */
+    public boolean isEmpty()
+    {
+        return handlers.length == 0;
+    }
+    
+    /**
+     * Returns true if nothing reacts to an event, otherwise false.
+     * Can be used to skip building the arguments of an event nobody is listening for.
+     * @param event The index of the event, from {@link #getEvent(java.lang.String)}.
+     * @return Returns whether or not the event has no handlers.
+     */
+    public boolean isEmpty(int event)
+    {
+        return eventHandlers[event].length == 0;
+    }
+    
+    /**
+     * Removes a handler from the bus. If the handler was added more than once, only one of them is removed.
+     * @param handler The handler to remove.
+     * @return Returns true if the handler was on the bus, otherwise false.
+     */
+    public synchronized boolean remove(H handler)
+    {
+        for(int i = 0; i < entries.size(); i++)
+            if(entries.get(i).owner == handler && entries.get(i).handler == handler)
+            {
+                unwrap(entries.remove(i));
+                rebuild();
+                return true;
+            }
+        return false;
+    }
+    
+    /**
+     * Sets the {@link wrath.common.EventProfiler} recording the calls of this bus. Called by the profiler when it is attached or detached.
+     * @param profiler The {@link wrath.common.EventProfiler} to wrap the handlers for, null to call them directly again.
+     */
+    synchronized void setProfiler(EventProfiler profiler)
+    {
+        if(this.profiler == profiler) return;
+        for(Entry<H> entry : entries) unwrap(entry);
+        this.profiler = profiler;
+        rebuild();
+    }
+    
+    /**
+     * Gets the amount of handlers on the bus, counting one for every subscribed listener method.
+     * @return Returns the amount of handlers on the bus.
+     */
+    public int size()
+    {
+        return handlers.length;
+    }
+    
+    /**
+     * Subscribes every method of the listener marked with {@link wrath.common.EventSubscriber} to the event of the same name.
+     * Each method is bound once, here, into a generated handler that calls it directly, so firing the event costs no reflection and the JIT is free to inline the listener.
+     * Methods that do not match an event are reported and skipped. A method overridden by an annotated method of a subclass is only bound once, through the override.
+     * @param lookup A lookup with access to the listener's methods, normally {@code MethodHandles.lookup()} called from within the listener's class.
+     * @param listener The listener to subscribe. Static methods of its class are subscribed as well.
+     * @return Returns the amount of methods that were subscribed.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized int subscribe(MethodHandles.Lookup lookup, Object listener)
+    {
+        int count = 0;
+        ArrayList<Method> bound = new ArrayList<>();
+        for(Class<?> c = listener.getClass(); c != null && c != Object.class; c = c.getSuperclass())
+            for(Method m : c.getDeclaredMethods())
+            {
+                if(!m.isAnnotationPresent(EventSubscriber.class) || isOverridden(m, bound)) continue;
+                
+                Method event = null;
+                for(Method e : events)
+                    if(e.getName().equals(m.getName()) && Arrays.equals(e.getParameterTypes(), m.getParameterTypes()) && e.getReturnType() == m.getReturnType()) event = e;
+                if(event == null)
+                {
+                    System.err.println("Could not subscribe '" + c.getName() + "." + m.getName() + "', it does not match any event of '" + type.getName() + "'!");
+                    continue;
+                }
+                
+                try
+                {
+                    boolean isStatic = Modifier.isStatic(m.getModifiers());
+                    MethodHandle target = lookup.unreflect(m);
+                    MethodType eventType = MethodType.methodType(event.getReturnType(), event.getParameterTypes());
+                    MethodType factoryType = isStatic ? MethodType.methodType(type) : MethodType.methodType(type, c);
+                    CallSite site = LambdaMetafactory.metafactory(lookup, event.getName(), factoryType, eventType, target, eventType);
+                    H handler = isStatic ? (H) site.getTarget().invoke() : (H) site.getTarget().invoke(listener);
+                    
+                    boolean[] receives = new boolean[events.length];
+                    receives[Arrays.asList(events).indexOf(event)] = true;
+                    entries.add(new Entry<>(listener, handler, receives, c.getName()));
+                    if(!isStatic && !Modifier.isPrivate(m.getModifiers())) bound.add(m);
+                    count++;
+                }
+                catch(Throwable e)
+                {
+                    System.err.println("Could not subscribe '" + c.getName() + "." + m.getName() + "' to '" + type.getName() + "'! " + e);
+                }
+            }
+        
+        if(count > 0) rebuild();
+        return count;
+    }
+    
+    /**
+     * Removes every method of a listener subscribed with {@link #subscribe(java.lang.invoke.MethodHandles.Lookup, java.lang.Object)}.
+     * @param listener The listener to unsubscribe.
+     * @return Returns true if the listener was subscribed, otherwise false.
+     */
+    public synchronized boolean unsubscribe(Object listener)
+    {
+        boolean removed = false;
+        for(int i = entries.size() - 1; i >= 0; i--)
+            if(entries.get(i).owner == listener && entries.get(i).handler != listener)
+            {
+                unwrap(entries.remove(i));
+                removed = true;
+            }
+        if(removed) rebuild();
+        return removed;
+    }
+    
+    /**
+     * Checks if a listener method is overridden by a method of a subclass that has already been bound.
+     */
+    private static boolean isOverridden(Method m, ArrayList<Method> bound)
+    {
+        int mod = m.getModifiers();
+        if(Modifier.isStatic(mod) || Modifier.isPrivate(mod)) return false;
+        for(Method b : bound)
+            if(b.getName().equals(m.getName()) && Arrays.equals(b.getParameterTypes(), m.getParameterTypes())) return true;
+        return false;
+    }
+    
+    /**
+     * Works out which events a handler reacts to. Default methods the handler's class does not override are skipped.
+     */
+    private boolean[] receives(H handler)
+    {
+        boolean[] receives = new boolean[events.length];
+        for(int i = 0; i < events.length; i++)
+        {
+            if(!events[i].isDefault()) receives[i] = true;
+            else
+            {
+                try
+                {
+                    receives[i] = handler.getClass().getMethod(events[i].getName(), events[i].getParameterTypes()).getDeclaringClass() != type;
+                }
+                catch(NoSuchMethodException e)
+                {
+                    receives[i] = true;
+                }
+            }
+        }
+        return receives;
+    }
+    
+    /**
+     * Copies the handlers into new arrays. Must be called while holding the lock.
+     */
+    @SuppressWarnings("unchecked")
+    private void rebuild()
+    {
+        H[] all = (H[]) Array.newInstance(type, entries.size());
+        for(int i = 0; i < all.length; i++) all[i] = entries.get(i).handler;
+        
+        if(profiler != null)
+            for(Entry<H> entry : entries)
+                if(entry.profiled == null) entry.profiled = profiler.wrap(type, entry.handler, entry.name, events, entry.receives);
+        
+        H[][] byEvent = (H[][]) Array.newInstance(type, events.length, 0);
+        for(int e = 0; e < events.length; e++)
+        {
+            int count = 0;
+            for(Entry<H> entry : entries)
+                if(entry.receives[e]) count++;
+            if(count == 0)
+            {
+                byEvent[e] = empty;
+                continue;
+            }
+            
+            byEvent[e] = (H[]) Array.newInstance(type, count);
+            count = 0;
+            for(Entry<H> entry : entries)
+                if(entry.receives[e]) byEvent[e][count++] = profiler == null ? entry.handler : entry.profiled;
+        }
+        
+        eventHandlers = byEvent;
+        handlers = all.length == 0 ? empty : all;
+    }
+    
+    /**
+     * Lets the profiler drop the timings of an entry that is removed or no longer profiled. Must be called while holding the lock.
+     */
+    private void unwrap(Entry<H> entry)
+    {
+        if(entry.profiled == null) return;
+        profiler.release(entry.handler);
+        entry.profiled = null;
+    }
+    
+    private static final class Entry<H>
+    {
+        private final Object owner;
+        private final H handler;
+        private final boolean[] receives;
+        private final String name;
+        private H profiled = null;
+        
+        private Entry(Object owner, H handler, boolean[] receives, String name)
+        {
+            this.owner = owner;
+            this.handler = handler;
+            this.receives = receives;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import wrath.common.entities.Entity;
+import wrath.common.entities.Player;
+import wrath.common.scheduler.Scheduler;
+import wrath.common.scripts.ScriptManager;
+import wrath.common.world.World;
+import wrath.util.Logger;
+
+/**
+ * Opt-in profiler for event dispatch, to find out which listener is eating the tick.
+ * While attached to an {@link wrath.common.EventBus}, every handler on it is wrapped to record its call count and time per event.
+ * A background thread samples the stack of any listener call that runs longer than the slow threshold, and periodically writes the listeners
+ * that took the most time to a {@link wrath.util.Logger}. Detached buses go back to calling their handlers directly, at no cost.
+ * @author Trent Spears
+ */
+public final class EventProfiler implements Closeable
+{
+    private static final int SAMPLE_DEPTH = 4;
+    
+    private final Logger logger;
+    private final long reportPeriod;
+    private final long slowThreshold;
+    private final ArrayList<EventBus<?>> buses = new ArrayList<>();
+    private final IdentityHashMap<Object, Listener> listeners = new IdentityHashMap<>();
+    private final CopyOnWriteArrayList<Flight> flights = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Flight> flight = ThreadLocal.withInitial(() ->
+    {
+        Flight f = new Flight(Thread.currentThread());
+        flights.add(f);
+        return f;
+    });
+    private final Thread sampler;
+    private volatile boolean closed = false;
+    private int topCount = 10;
+    
+    /**
+     * Constructor. Starts the sampling thread.
+     * @param logger The {@link wrath.util.Logger} to write the reports to.
+     * @param reportPeriodMillis The time between reports in milliseconds. Set to 0 to only report with {@link #report()}.
+     * @param slowThresholdMicros The time in microseconds a listener call must take before its stack is sampled.
+     */
+    public EventProfiler(Logger logger, long reportPeriodMillis, long slowThresholdMicros)
+    {
+        this.logger = logger;
+        this.reportPeriod = reportPeriodMillis * 1000000L;
+        this.slowThreshold = Math.max(slowThresholdMicros, 1) * 1000L;
+        
+        sampler = new Thread(this::sample, "Wrath Event Profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+    
+    /**
+     * Starts profiling an {@link wrath.common.EventBus}.
+     * @param bus The {@link wrath.common.EventBus} to profile.
+     */
+    public synchronized void attach(EventBus<?> bus)
+    {
+        if(closed || buses.contains(bus)) return;
+        buses.add(bus);
+        bus.setProfiler(this);
+    }
+    
+    /**
+     * Starts profiling the entity, player, world, script and scheduler events.
+     */
+    public void attachEngineBuses()
+    {
+        attach(Entity.getEntityEventBus());
+        attach(Player.getPlayerEventBus());
+        attach(World.getWorldEventBus());
+        attach(ScriptManager.getScriptEventBus());
+        attach(Scheduler.getSchedulerEventBus());
+    }
+    
+    /**
+     * Stops profiling every bus and stops the sampling thread.
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        for(EventBus<?> bus : buses) bus.setProfiler(null);
+        buses.clear();
+        LockSupport.unpark(sampler);
+    }
+    
+    /**
+     * Stops profiling an {@link wrath.common.EventBus}.
+     * @param bus The {@link wrath.common.EventBus} to stop profiling.
+     */
+    public synchronized void detach(EventBus<?> bus)
+    {
+        if(buses.remove(bus)) bus.setProfiler(null);
+    }
+    
+    /**
+     * Writes the listeners that took the most time since the last report to the {@link wrath.util.Logger}, then starts a new report period.
+     */
+    public void report()
+    {
+        ArrayList<Stat> stats = new ArrayList<>();
+        synchronized(listeners)
+        {
+            for(Listener l : listeners.values()) stats.addAll(l.stats.values());
+        }
+        
+        ArrayList<Stat> top = new ArrayList<>();
+        for(Stat s : stats)
+        {
+            s.snapshot();
+            if(s.periodCalls > 0) top.add(s);
+        }
+        top.sort((a, b) -> Long.compare(b.periodNanos, a.periodNanos));
+        
+        logger.println("Top event listeners:");
+        if(top.isEmpty()) logger.println("  No events were fired.");
+        for(int i = 0; i < top.size() && i < topCount; i++)
+        {
+            Stat s = top.get(i);
+            logger.println("  " + (i + 1) + ". " + s.name + ": " + s.periodCalls + " calls, " + format(s.periodNanos) + " total, "
+                    + format(s.periodNanos / s.periodCalls) + " average, " + format(s.periodMax) + " max");
+            for(Map.Entry<String, Integer> sample : s.periodSamples.entrySet())
+                logger.println("      slow sample x" + sample.getValue() + ": " + sample.getKey());
+        }
+    }
+    
+    /**
+     * Sets how many listeners are listed in each report.
+     * @param count The amount of listeners per report. Default 10.
+     */
+    public void setTopCount(int count)
+    {
+        topCount = Math.max(count, 1);
+    }
+    
+    /**
+     * Releases a handler wrapped with {@link #wrap(java.lang.Class, java.lang.Object, java.lang.String, java.lang.reflect.Method[], boolean[])}, once for every time it was wrapped.
+     * The timings of the handler are dropped once it is no longer wrapped anywhere.
+     * @param handler The handler that was removed from, or is no longer profiled on, its bus.
+     */
+    void release(Object handler)
+    {
+        synchronized(listeners)
+        {
+            Listener l = listeners.get(handler);
+            if(l != null && --l.wraps == 0) listeners.remove(handler);
+        }
+    }
+    
+    /**
+     * Wraps a handler so that its calls are recorded. Only the events the handler receives are timed.
+     * A handler that is wrapped again, such as one added to a bus twice, shares the timings of its earlier wrap until it is released.
+     * @param <H> The type of event handler.
+     * @param type The interface of event handler.
+     * @param handler The handler to wrap.
+     * @param name The name of the listener to show in reports.
+     * @param events The events of the handler type.
+     * @param receives Which of the events the handler receives.
+     * @return Returns the wrapped handler.
+     */
+    <H> H wrap(Class<H> type, H handler, String name, Method[] events, boolean[] receives)
+    {
+        HashMap<Method, Stat> byEvent = new HashMap<>();
+        synchronized(listeners)
+        {
+            Listener l = listeners.computeIfAbsent(handler, (k) -> new Listener());
+            l.wraps++;
+            for(int i = 0; i < events.length; i++)
+                if(receives[i]) byEvent.put(events[i], l.stats.computeIfAbsent(events[i], (e) -> new Stat(name + "." + e.getName())));
+        }
+        
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, m, a) ->
+        {
+            Stat s = byEvent.get(m);
+            if(s == null || closed) return invoke(handler, m, a);
+            
+            Flight f = flight.get();
+            Stat outerStat = f.stat;
+            long outerStart = f.start;
+            long start = System.nanoTime();
+            f.start = start;
+            f.stat = s;
+            try
+            {
+                return invoke(handler, m, a);
+            }
+            finally
+            {
+                s.record(System.nanoTime() - start);
+                f.stat = outerStat;
+                f.start = outerStart;
+            }
+        }));
+    }
+    
+    private static Object invoke(Object handler, Method m, Object[] a) throws Throwable
+    {
+        try
+        {
+            return m.invoke(handler, a);
+        }
+        catch(InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+    
+    private static String format(long nanos)
+    {
+        if(nanos >= 1000000L) return (nanos / 10000L) / 100.0 + "ms";
+        if(nanos >= 1000L) return (nanos / 10L) / 100.0 + "us";
+        return nanos + "ns";
+    }
+    
+    private void sample()
+    {
+        long interval = Math.max(slowThreshold / 2, 100000L);
+        long lastReport = System.nanoTime();
+        while(!closed)
+        {
+            LockSupport.parkNanos(interval);
+            long now = System.nanoTime();
+            for(Flight f : flights)
+            {
+                if(!f.thread.isAlive())
+                {
+                    flights.remove(f);
+                    continue;
+                }
+                
+                Stat s = f.stat;
+                long start = f.start;
+                if(s == null || now - start < slowThreshold) continue;
+                
+                StackTraceElement[] trace = f.thread.getStackTrace();
+                if(f.stat != s || f.start != start) continue;
+                
+                StringBuilder b = new StringBuilder();
+                int depth = 0;
+                for(StackTraceElement e : trace)
+                {
+                    String c = e.getClassName();
+                    if(c.startsWith(EventProfiler.class.getName()) || c.contains("$Proxy")) break;
+                    if(c.startsWith("java.lang.reflect.") || c.startsWith("jdk.internal.reflect.") || c.startsWith("sun.reflect.")) continue;
+                    if(depth > 0) b.append(" < ");
+                    b.append(e);
+                    if(++depth == SAMPLE_DEPTH) break;
+                }
+                if(depth > 0) s.sample(b.toString());
+            }
+            
+            if(reportPeriod > 0 && now - lastReport >= reportPeriod)
+            {
+                lastReport = now;
+                report();
+            }
+        }
+        
+        if(reportPeriod > 0) report();
+        flights.clear();
+    }
+    
+    /**
+     * The listener call in progress on one thread.
+     * Dropped by the sampling thread once its thread has ended.
+     */
+    private static final class Flight
+    {
+        private final Thread thread;
+        private volatile Stat stat = null;
+        private volatile long start = 0;
+        
+        private Flight(Thread thread)
+        {
+            this.thread = thread;
+        }
+    }
+    
+    /**
+     * Timings of one handler, shared by every wrap of it.
+     */
+    private static final class Listener
+    {
+        private final HashMap<Method, Stat> stats = new HashMap<>();
+        private int wraps = 0;
+    }
+    
+    /**
+     * Timings of one listener for one event.
+     */
+    private static final class Stat
+    {
+        private final String name;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final HashMap<String, Integer> samples = new HashMap<>();
+        private long periodCalls = 0;
+        private long periodNanos = 0;
+        private long periodMax = 0;
+        private HashMap<String, Integer> periodSamples = new HashMap<>();
+        
+        private Stat(String name)
+        {
+            this.name = name;
+        }
+        
+        private void record(long duration)
+        {
+            calls.incrementAndGet();
+            nanos.addAndGet(duration);
+            long m;
+            while(duration > (m = max.get()) && !max.compareAndSet(m, duration));
+        }
+        
+        private synchronized void sample(String trace)
+        {
+            samples.merge(trace, 1, Integer::sum);
+        }
+        
+        private synchronized void snapshot()
+        {
+            periodCalls = calls.getAndSet(0);
+            periodNanos = nanos.getAndSet(0);
+            periodMax = max.getAndSet(0);
+            periodSamples = new HashMap<>(samples);
+            samples.clear();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a listener as the receiver of one event of an {@link wrath.common.EventBus}.
+ * The method must have the same name and parameters as the event handler method it receives, for example
+ * {@code @EventSubscriber public void onTaskRun(Scheduler scheduler, Task task)} to receive {@link wrath.common.scheduler.SchedulerEventHandler#onTaskRun(wrath.common.scheduler.Scheduler, wrath.common.scheduler.Task)}.
+ * Listeners only need to declare the events they care about, and are bound with {@link wrath.common.EventBus#subscribe(java.lang.invoke.MethodHandles.Lookup, java.lang.Object)}.
+ * @author Trent Spears
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface EventSubscriber
+{
+    
+}
@@ -17,29 +17,82 @@
  */
 package wrath.common.entities;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import org.lwjgl.util.vector.Vector3f;
+import wrath.common.EventBus;
 import wrath.common.entities.events.EntityEventHandler;
 import wrath.common.world.World;
 
 /**
  * Class to represent anything that holds a location in the world.
+ * While the entity is in a {@link wrath.common.world.World}, its location, orientation, size scale and speed live in the World's {@link wrath.common.entities.EntityStore}
+ * and the getters and setters read and write the store. Otherwise they are kept in the Entity itself.
  * @author Trent Spears
  */
 public abstract class Entity implements Serializable
 {
-    private transient static final ArrayList<EntityEventHandler> entHandlers = new ArrayList<>();
-    private transient static RootEntityEventHandler roothandler = null;
+    /**
+     * Change mask bit set when the location of an entity changes.
+     */
+    public static final int CHANGE_LOCATION = 1;
+    /**
+     * Change mask bit set when the orientation of an entity changes.
+     */
+    public static final int CHANGE_ORIENTATION = 1 << 1;
+    /**
+     * Change mask bit set when the size scale of an entity changes.
+     */
+    public static final int CHANGE_SCALE = 1 << 2;
+    /**
+     * Change mask bit set when the speed of an entity changes.
+     */
+    public static final int CHANGE_SPEED = 1 << 3;
+    /**
+     * Change mask bit set when the {@link wrath.common.entities.EntityDescriptor} of an entity changes.
+     */
+    public static final int CHANGE_DESCRIPTOR = 1 << 4;
+    /**
+     * Change mask bit set when an entity gets a new index in its {@link wrath.common.world.World}, because it joined the World or took the place of a removed entity.
+     * Not part of {@link #CHANGE_ALL}, and not reported by change events.
+     */
+    public static final int CHANGE_SLOT = 1 << 5;
+    /**
+     * Change mask with every field set.
+     */
+    public static final int CHANGE_ALL = CHANGE_LOCATION | CHANGE_ORIENTATION | CHANGE_SCALE | CHANGE_SPEED | CHANGE_DESCRIPTOR;
+    
+    private transient static final EventBus<EntityEventHandler> entHandlers = new EventBus<>(EntityEventHandler.class);
+    private transient static final RootEntityEventHandler roothandler = new RootEntityEventHandler();
     
     public static void addEntityEventHandler(EntityEventHandler handler)
     {
         entHandlers.add(handler);
     }
     
+    /**
+     * Gets the {@link wrath.common.EventBus} of {@link wrath.common.entities.events.EntityEventHandler}s, to subscribe listeners with {@link wrath.common.EventSubscriber} methods.
+     * @return Returns the {@link wrath.common.EventBus} of entity events.
+     */
+    public static EventBus<EntityEventHandler> getEntityEventBus()
+    {
+        return entHandlers;
+    }
+    
+    /**
+     * Gets the root instance of {@link wrath.common.entities.events.EntityEventHandler} to report events to.
+     * @return Returns the root instance of {@link wrath.common.entities.events.EntityEventHandler} to report events to.
+     */
+    public static EntityEventHandler getEntityEventHandler()
+    {
+        return roothandler;
+    }
+    
     // Object
     
-    private boolean hasChanged = true;
+    private transient int worldSlot = -1;
     
     private EntityDescriptor desc = null;
     private Vector3f location;
@@ -56,21 +109,42 @@ public abstract class Entity implements Serializable
      */
     protected Entity(Vector3f location, World world, EntityDescriptor descriptor)
     {
-        this.location = location;
-        this.world = world;
+        this.location = location == null ? new Vector3f() : location;
         this.desc = descriptor;
         if(desc != null) sizeScale = desc.getDefaultScale();
-        
-        if(roothandler == null) roothandler = new RootEntityEventHandler();
+        if(world != null) world.addEntity(this);
     }
     
     /**
-     * For internal Engine use.
-     * @return For internal use!
+     * Do not call! For internal use only!
+     * Sets the World of the entity and its index in the World's entity list, without adding it to or removing it from either World's entity list.
+     * @param world The {@link wrath.common.world.World} the entity is in.
+     * @param slot The index of the entity in the World's entity list.
      */
-    public boolean changed()
+    public void attachToWorld(World world, int slot)
     {
-        return hasChanged;
+        if(world != this.world) syncFromStore();
+        this.world = world;
+        this.worldSlot = slot;
+    }
+    
+    /**
+     * Do not call! For internal use only!
+     * Marks fields as changed without changing them, for example when the entity is moved to another slot of its World.
+     * @param fields The mask of the CHANGE_ constants of the fields to mark.
+     */
+    public void markChanged(int fields)
+    {
+        change(fields);
+    }
+    
+    /**
+     * Reports a changed field to the World the entity is in, which keeps track of the changes for its {@link wrath.common.world.EntityChangeCursor}s.
+     * @param field The CHANGE_ constant of the field that changed.
+     */
+    private void change(int field)
+    {
+        if(world != null) world.queueEntityChange(this, field);
     }
     
     /**
@@ -84,19 +158,23 @@ public abstract class Entity implements Serializable
     
     /**
      * The {@link org.lwjgl.util.vector.Vector3f} representation of the entity's 3D coordinates.
+     * The vector is a copy owned by the entity; changing it does not move the entity, use {@link #setLocation(float, float, float)} instead.
      * @return Returns the {@link org.lwjgl.util.vector.Vector3f} representation of the entity's 3D coordinates.
      */
     public Vector3f getLocation()
     {
+        if(world != null) world.getEntityStore().getLocation(worldSlot, location);
         return location;
     }
     
     /**
      * Gets the {@link org.lwjgl.util.vector.Vector3f} representation of the entity's pitch, yaw and roll.
+     * The vector is a copy owned by the entity; changing it does not turn the entity, use {@link #setOrientation(float, float, float)} instead.
      * @return Returns the {@link org.lwjgl.util.vector.Vector3f} representation of the entity's pitch, yaw and roll.
      */
     public Vector3f getOrientation()
     {
+        if(world != null) world.getEntityStore().getOrientation(worldSlot, orientation);
         return orientation;
     }
     
@@ -106,6 +184,7 @@ public abstract class Entity implements Serializable
      */
     public float getSizeScale()
     {
+        if(world != null) return world.getEntityStore().get(worldSlot, EntityStore.SCALE);
         return sizeScale;
     }
     
@@ -115,6 +194,7 @@ public abstract class Entity implements Serializable
      */
     public float getSpeed()
     {
+        if(world != null) return world.getEntityStore().get(worldSlot, EntityStore.SPEED);
         return speed;
     }
     
@@ -128,11 +208,12 @@ public abstract class Entity implements Serializable
     }
     
     /**
-     * Do not call! For internal use only!
+     * Gets the index of the entity in its World's entity list.
+     * @return Returns the index of the entity in its World, -1 if it is not in a World.
      */
-    public void resetChangeTracker()
+    public int getWorldSlot()
     {
-        hasChanged = false;
+        return worldSlot;
     }
     
     /**
@@ -142,17 +223,17 @@ public abstract class Entity implements Serializable
     public void setEntityDescriptor(EntityDescriptor descriptor)
     {
         desc = descriptor;
+        change(CHANGE_DESCRIPTOR);
         setSizeScale(desc.getDefaultScale());
     }
     
     /**
-     * Sets the entity's 3D location in the world.
+     * Sets the entity's 3D location in the world. The values of the vector are copied.
      * @param newLocation The {@link org.lwjgl.util.vector.Vector3f} representation of the entity's 3D coordinates.
      */
     public void setLocation(Vector3f newLocation)
     {
-        hasChanged = true;
-        this.location = newLocation;
+        setLocation(newLocation.x, newLocation.y, newLocation.z);
     }
     
     /**
@@ -163,18 +244,22 @@ public abstract class Entity implements Serializable
      */
     public void setLocation(float x, float y, float z)
     {
-        hasChanged = true;
-        location.set(x, y, z);
+        change(CHANGE_LOCATION);
+        if(world == null) location.set(x, y, z);
+        else
+        {
+            world.getEntityStore().setLocation(worldSlot, x, y, z);
+            world.updateEntityLocation(this);
+        }
     }
     
     /**
-     * Sets the entity's orientation (pitch, yaw and roll).
+     * Sets the entity's orientation (pitch, yaw and roll). The values of the vector are copied.
      * @param newOrientation The {@link org.lwjgl.util.vector.Vector3f} representation of the entity's pitch, yaw and roll.
      */
     public void setOrientation(Vector3f newOrientation)
     {
-        hasChanged = true;
-        this.orientation = newOrientation;
+        setOrientation(newOrientation.x, newOrientation.y, newOrientation.z);
     }
     
     /**
@@ -185,8 +270,9 @@ public abstract class Entity implements Serializable
      */
     public void setOrientation(float pitch, float yaw, float roll)
     {
-        hasChanged = true;
-        orientation.set(pitch, yaw, roll);
+        change(CHANGE_ORIENTATION);
+        if(world != null) world.getEntityStore().setOrientation(worldSlot, pitch, yaw, roll);
+        else orientation.set(pitch, yaw, roll);
     }
     
     /**
@@ -195,8 +281,9 @@ public abstract class Entity implements Serializable
      */
     public void setSizeScale(float scale)
     {
-        hasChanged = true;
-        this.sizeScale = scale;
+        change(CHANGE_SCALE);
+        if(world != null) world.getEntityStore().set(worldSlot, EntityStore.SCALE, scale);
+        else this.sizeScale = scale;
     }
     
     /**
@@ -206,16 +293,20 @@ public abstract class Entity implements Serializable
      */
     public void setSpeed(float speed)
     {
-        this.speed = Math.abs(speed);
+        change(CHANGE_SPEED);
+        if(world != null) world.getEntityStore().set(worldSlot, EntityStore.SPEED, Math.abs(speed));
+        else this.speed = Math.abs(speed);
     }
     
     /**
-     * Sets the {@link wrath.common.world.World} the entity is in.
-     * @param world The {@link wrath.common.world.World} the entity is in.
+     * Sets the {@link wrath.common.world.World} the entity is in, removing it from its previous World.
+     * @param world The {@link wrath.common.world.World} the entity is in. Can be null.
      */
     public void setWorld(World world)
     {
-        this.world = world;
+        if(this.world == world) return;
+        if(this.world != null) this.world.removeEntity(this);
+        if(world != null) world.addEntity(this);
     }
     
     /**
@@ -226,7 +317,14 @@ public abstract class Entity implements Serializable
      */
     public void translateLocation(float dx, float dy, float dz)
     {
-        hasChanged = true;
+        change(CHANGE_LOCATION);
+        if(world != null)
+        {
+            EntityStore store = world.getEntityStore();
+            store.setLocation(worldSlot, store.get(worldSlot, EntityStore.X) + dx, store.get(worldSlot, EntityStore.Y) + dy, store.get(worldSlot, EntityStore.Z) + dz);
+            world.updateEntityLocation(this);
+            return;
+        }
         this.location.x += dx;
         this.location.y += dy;
         this.location.z += dz;
@@ -240,16 +338,53 @@ public abstract class Entity implements Serializable
      */
     public void translateOrientation(float dx, float dy, float dr)
     {
-        hasChanged = true;
+        change(CHANGE_ORIENTATION);
+        if(world != null)
+        {
+            EntityStore store = world.getEntityStore();
+            store.setOrientation(worldSlot, store.get(worldSlot, EntityStore.PITCH) + dx, store.get(worldSlot, EntityStore.YAW) + dy, store.get(worldSlot, EntityStore.ROLL) + dr);
+            return;
+        }
         this.orientation.x += dx;
         this.orientation.y += dy;
         this.orientation.z += dr;
     }
     
+    /**
+     * Copies the values of the entity out of its World's {@link wrath.common.entities.EntityStore}, so they are kept when the entity leaves the World or is saved.
+     */
+    private void syncFromStore()
+    {
+        if(world == null) return;
+        EntityStore store = world.getEntityStore();
+        store.getLocation(worldSlot, location);
+        store.getOrientation(worldSlot, orientation);
+        sizeScale = store.get(worldSlot, EntityStore.SCALE);
+        speed = store.get(worldSlot, EntityStore.SPEED);
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        worldSlot = -1;
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        syncFromStore();
+        out.defaultWriteObject();
+    }
+    
     // Event handler
     
-    private class RootEntityEventHandler implements EntityEventHandler
+    private static class RootEntityEventHandler implements EntityEventHandler
     {
+        private static final int EVENT_ENTITIES_CHANGED = entHandlers.getEvent("onEntitiesChanged");
         
+        @Override
+        public void onEntitiesChanged(World world, Entity[] entities, int[] fields)
+        {
+            for(EntityEventHandler handler : entHandlers.getHandlers(EVENT_ENTITIES_CHANGED)) handler.onEntitiesChanged(world, entities, fields);
+        }
     }
 }
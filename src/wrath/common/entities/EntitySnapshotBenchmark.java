@@ -0,0 +1,143 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.entities;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.lwjgl.util.vector.Vector3f;
+import wrath.common.world.World;
+import wrath.common.world.WorldType;
+
+/**
+ * Benchmark of the {@link wrath.common.entities.EntitySnapshotEncoder} and {@link wrath.common.entities.EntitySnapshotDecoder}.
+ * Fills a {@link wrath.common.world.World} with entities, then times full snapshots and delta snapshots taken after some of the entities moved and turned,
+ * and prints the throughput in entities per millisecond and the size in bytes per entity of each.
+ * Arguments, all optional: the amount of entities (default 20000), the share of entities that change between delta snapshots (default 0.1) and the amount of snapshots timed (default 500).
+ * The World is created under etc/worlds and its file is deleted afterwards.
+ * @author Trent Spears
+ */
+public final class EntitySnapshotBenchmark
+{
+    private static final float POSITION_PRECISION = 0.01f;
+    private static final float ORIENTATION_PRECISION = 0.1f;
+    
+    private EntitySnapshotBenchmark(){}
+    
+    /**
+     * Runs the benchmark and prints the results.
+     * @param args The amount of entities, the share of entities changed per delta snapshot and the amount of snapshots. All optional.
+     */
+    public static void main(String[] args)
+    {
+        int entityCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        float changedShare = args.length > 1 ? Float.parseFloat(args[1]) : 0.1f;
+        int snapshots = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int changes = Math.max(1, (int) (entityCount * changedShare));
+        
+        String name = "snapshot-benchmark-" + System.nanoTime();
+        World world = World.loadWorld(name, WorldType.RANDOMLY_GENERATED);
+        new File("etc/worlds/" + name).delete();
+        
+        Random random = new Random(42);
+        for(int i = 0; i < entityCount; i++)
+        {
+            Entity e = new GenericEntity(new Vector3f(random.nextFloat() * 10000f, random.nextFloat() * 200f, random.nextFloat() * 10000f), world, null);
+            e.setOrientation(random.nextFloat() * 360f, random.nextFloat() * 360f, 0f);
+        }
+        
+        EntitySnapshotEncoder encoder = new EntitySnapshotEncoder(POSITION_PRECISION, ORIENTATION_PRECISION);
+        EntitySnapshotDecoder decoder = new EntitySnapshotDecoder(POSITION_PRECISION, ORIENTATION_PRECISION);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(entityCount * 64 + 64);
+        
+        // Warm-up, so the timed runs measure compiled code.
+        for(int i = 0; i < 50; i++)
+        {
+            change(world, random, changes);
+            run(encoder, decoder, world, buffer, i % 10 == 0);
+        }
+        
+        Result full = new Result();
+        for(int i = 0; i < snapshots; i++) full.add(run(encoder, decoder, world, buffer, true), decoder.getChangedCount(), buffer);
+        
+        Result delta = new Result();
+        for(int i = 0; i < snapshots; i++)
+        {
+            change(world, random, changes);
+            delta.add(run(encoder, decoder, world, buffer, false), decoder.getChangedCount(), buffer);
+        }
+        encoder.close();
+        
+        System.out.println("Entities: " + entityCount + ", changed per delta snapshot: " + changes + " (" + (delta.entities / snapshots) + " distinct), snapshots timed: " + snapshots);
+        full.print("Full");
+        delta.print("Delta");
+    }
+    
+    /**
+     * Moves and turns random entities of the World by small amounts, as a tick of movement would.
+     */
+    private static void change(World world, Random random, int changes)
+    {
+        for(int i = 0; i < changes; i++)
+        {
+            Entity e = world.getEntity(random.nextInt(world.getEntityCount()));
+            e.translateLocation(random.nextFloat() * 2f - 1f, 0f, random.nextFloat() * 2f - 1f);
+            if(random.nextInt(4) == 0) e.translateOrientation(0f, random.nextFloat() * 10f - 5f, 0f);
+        }
+    }
+    
+    /**
+     * Encodes one snapshot and decodes it again.
+     * @return Returns the encoding and decoding times in nanoseconds.
+     */
+    private static long[] run(EntitySnapshotEncoder encoder, EntitySnapshotDecoder decoder, World world, ByteBuffer buffer, boolean full)
+    {
+        buffer.clear();
+        long start = System.nanoTime();
+        encoder.encode(world, buffer, full);
+        long encoded = System.nanoTime();
+        buffer.flip();
+        decoder.decode(buffer);
+        long decoded = System.nanoTime();
+        buffer.rewind();
+        return new long[]{encoded - start, decoded - encoded};
+    }
+    
+    private static final class Result
+    {
+        private long encodeTime = 0;
+        private long decodeTime = 0;
+        private long bytes = 0;
+        private long entities = 0;
+        
+        private void add(long[] times, int written, ByteBuffer buffer)
+        {
+            encodeTime += times[0];
+            decodeTime += times[1];
+            bytes += buffer.limit();
+            entities += written;
+        }
+        
+        private void print(String kind)
+        {
+            double perEntity = entities == 0 ? 0 : (double) bytes / entities;
+            System.out.println(String.format("%s snapshots: encode %.0f entities/ms, decode %.0f entities/ms, %.2f bytes/entity", kind,
+                    entities / (encodeTime / 1e6), entities / (decodeTime / 1e6), perEntity));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.entities;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Reads the snapshots written by an {@link wrath.common.entities.EntitySnapshotEncoder} and keeps the resulting state of every entity slot.
+ * Snapshots must be decoded in the order they were encoded, starting with a full snapshot, using the same precisions as the encoder.
+ * @author Trent Spears
+ */
+public final class EntitySnapshotDecoder
+{
+    private final float positionPrecision;
+    private final float orientationPrecision;
+    
+    private int[] state = new int[0];
+    private int[] changed = new int[64];
+    private int changedCount = 0;
+    private int entityCount = 0;
+    private long bitBuffer = 0;
+    private int bitCount = 0;
+    
+    /**
+     * Constructor.
+     * @param positionPrecision The position precision the snapshots were encoded with.
+     * @param orientationPrecision The orientation precision the snapshots were encoded with.
+     */
+    public EntitySnapshotDecoder(float positionPrecision, float orientationPrecision)
+    {
+        this.positionPrecision = positionPrecision;
+        this.orientationPrecision = orientationPrecision;
+    }
+    
+    /**
+     * Reads one snapshot from a buffer, starting at the buffer's position, and applies it to the stored state.
+     * @param in The buffer to read from. Its position is moved past the snapshot.
+     */
+    public void decode(ByteBuffer in)
+    {
+        boolean full = in.get() == 1;
+        entityCount = in.getInt();
+        int records = in.getInt();
+        if(full) Arrays.fill(state, 0);
+        if(changed.length < records) changed = new int[records];
+        changedCount = 0;
+        
+        int slot = -1;
+        for(int r = 0; r < records; r++)
+        {
+            slot += readVar(in) + 1;
+            if(state.length < (slot + 1) * 6) state = Arrays.copyOf(state, Math.max((slot + 1) * 6, state.length * 2));
+            int fields = (int) readBits(in, 2);
+            if((fields & 1) != 0) readVector(in, slot * 6);
+            if((fields & 2) != 0) readVector(in, slot * 6 + 3);
+            changed[changedCount++] = slot;
+        }
+        
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+    
+    /**
+     * Gets a slot that was updated by the last decoded snapshot.
+     * @param index The index of the update, from 0 to {@link #getChangedCount()} - 1.
+     * @return Returns the slot that was updated.
+     */
+    public int getChangedSlot(int index)
+    {
+        return changed[index];
+    }
+    
+    /**
+     * Gets the amount of slots updated by the last decoded snapshot.
+     * @return Returns the amount of slots updated.
+     */
+    public int getChangedCount()
+    {
+        return changedCount;
+    }
+    
+    /**
+     * Gets the amount of entities the World had when the last snapshot was taken. Slots from this count on are no longer in use.
+     * @return Returns the amount of entities.
+     */
+    public int getEntityCount()
+    {
+        return entityCount;
+    }
+    
+    /**
+     * Reads the decoded location of a slot into a vector.
+     * @param slot The slot of the entity.
+     * @param dest The {@link org.lwjgl.util.vector.Vector3f} to write the location to.
+     * @return Returns dest.
+     */
+    public Vector3f getLocation(int slot, Vector3f dest)
+    {
+        int i = slot * 6;
+        if(i >= state.length) dest.set(0, 0, 0);
+        else dest.set(state[i] * positionPrecision, state[i + 1] * positionPrecision, state[i + 2] * positionPrecision);
+        return dest;
+    }
+    
+    /**
+     * Reads the decoded pitch, yaw and roll of a slot into a vector.
+     * @param slot The slot of the entity.
+     * @param dest The {@link org.lwjgl.util.vector.Vector3f} to write the orientation to.
+     * @return Returns dest.
+     */
+    public Vector3f getOrientation(int slot, Vector3f dest)
+    {
+        int i = slot * 6 + 3;
+        if(i >= state.length) dest.set(0, 0, 0);
+        else dest.set(state[i] * orientationPrecision, state[i + 1] * orientationPrecision, state[i + 2] * orientationPrecision);
+        return dest;
+    }
+    
+    private void readVector(ByteBuffer in, int index)
+    {
+        int width = (int) readBits(in, 6);
+        for(int i = 0; i < 3; i++)
+        {
+            int zigzag = (int) readBits(in, width);
+            state[index + i] += (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+    
+    private int readVar(ByteBuffer in)
+    {
+        return (int) readBits(in, (int) readBits(in, 6));
+    }
+    
+    private long readBits(ByteBuffer in, int count)
+    {
+        while(bitCount < count)
+        {
+            bitBuffer |= (in.get() & 0xffL) << bitCount;
+            bitCount += 8;
+        }
+        long value = bitBuffer & ((1L << count) - 1);
+        bitBuffer >>>= count;
+        bitCount -= count;
+        return value;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.entities;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import wrath.common.Closeable;
+import wrath.common.world.EntityChangeCursor;
+import wrath.common.world.World;
+
+/**
+ * Writes the locations and orientations of the entities of a {@link wrath.common.world.World} into a compact binary snapshot, to replicate them to clients.
+ * Values are quantized to a fixed precision and written as the difference from the last value sent for the same slot, packed into as few bits as they need.
+ * A full snapshot holds every entity; a delta snapshot only holds the entities whose location or orientation changed, or that moved to another slot, since the last snapshot.
+ * The encoder reads the changes through its own {@link wrath.common.world.EntityChangeCursor}, so other consumers of the World's changes are not affected, and should be closed once it is no longer used.
+ * The snapshots must be read, in order, by an {@link wrath.common.entities.EntitySnapshotDecoder} with the same precisions.
+ * @author Trent Spears
+ */
+public final class EntitySnapshotEncoder implements Closeable
+{
+    private static final int ENCODED_FIELDS = Entity.CHANGE_LOCATION | Entity.CHANGE_ORIENTATION | Entity.CHANGE_SLOT;
+    
+    private final float positionScale;
+    private final float orientationScale;
+    
+    private EntityChangeCursor cursor = null;
+    private int[] baseline = new int[0];
+    private long[] records = new long[64];
+    private long bitBuffer = 0;
+    private int bitCount = 0;
+    
+    /**
+     * Constructor.
+     * @param positionPrecision The smallest step locations are rounded to, for example 0.01.
+     * @param orientationPrecision The smallest step the pitch, yaw and roll are rounded to.
+     */
+    public EntitySnapshotEncoder(float positionPrecision, float orientationPrecision)
+    {
+        this.positionScale = 1f / positionPrecision;
+        this.orientationScale = 1f / orientationPrecision;
+    }
+    
+    /**
+     * Stops reading the changes of the World of the last snapshot.
+     */
+    @Override
+    public void close()
+    {
+        if(cursor != null) cursor.close();
+        cursor = null;
+    }
+    
+    /**
+     * Writes a snapshot of a World to a buffer, starting at the buffer's position.
+     * The first snapshot of a World is always full.
+     * @param world The {@link wrath.common.world.World} to take the snapshot of.
+     * @param out The buffer to write to. It is not cleared or flipped, so it can be reused between snapshots.
+     * @param full True to write every entity and start over from a zero baseline, for a new client or after a snapshot was lost. False to only write the changed entities.
+     * @return Returns the amount of bytes written.
+     */
+    public int encode(World world, ByteBuffer out, boolean full)
+    {
+        if(cursor == null || cursor.getWorld() != world)
+        {
+            close();
+            cursor = world.openChangeCursor();
+            full = true;
+        }
+        int changed = cursor.poll();
+        
+        int start = out.position();
+        int count = world.getEntityCount();
+        if(baseline.length < count * 6) baseline = Arrays.copyOf(baseline, Math.max(count * 6, baseline.length * 2));
+        
+        // Each record is the slot in the high half and the mask of the fields to write in the low half, so sorting orders them by slot.
+        int recordCount = 0;
+        if(full)
+        {
+            Arrays.fill(baseline, 0);
+            if(records.length < count) records = new long[count];
+            for(int i = 0; i < count; i++) records[i] = ((long) i << 32) | ENCODED_FIELDS;
+            recordCount = count;
+        }
+        else
+        {
+            for(int i = 0; i < changed; i++)
+            {
+                int fields = cursor.getChangedFields(i);
+                if((fields & ENCODED_FIELDS) == 0) continue;
+                if(recordCount == records.length) records = Arrays.copyOf(records, recordCount * 2);
+                records[recordCount++] = ((long) cursor.getEntity(i).getWorldSlot() << 32) | fields;
+            }
+            Arrays.sort(records, 0, recordCount);
+        }
+        
+        out.put((byte) (full ? 1 : 0));
+        out.putInt(count);
+        out.putInt(recordCount);
+        
+        EntityStore store = world.getEntityStore();
+        int previous = -1;
+        for(int r = 0; r < recordCount; r++)
+        {
+            int slot = (int) (records[r] >>> 32);
+            writeVar(out, slot - previous - 1);
+            previous = slot;
+            
+            // An entity that moved to another slot is written whole, since the baseline of the slot belonged to another entity.
+            int fields = (int) records[r];
+            boolean moved = (fields & Entity.CHANGE_SLOT) != 0;
+            boolean location = moved || (fields & Entity.CHANGE_LOCATION) != 0;
+            boolean orientation = moved || (fields & Entity.CHANGE_ORIENTATION) != 0;
+            writeBits(out, (location ? 1 : 0) | (orientation ? 2 : 0), 2);
+            if(location) writeVector(out, slot * 6, store.get(slot, EntityStore.X), store.get(slot, EntityStore.Y), store.get(slot, EntityStore.Z), positionScale);
+            if(orientation) writeVector(out, slot * 6 + 3, store.get(slot, EntityStore.PITCH), store.get(slot, EntityStore.YAW), store.get(slot, EntityStore.ROLL), orientationScale);
+        }
+        
+        if(bitCount > 0) out.put((byte) bitBuffer);
+        bitBuffer = 0;
+        bitCount = 0;
+        return out.position() - start;
+    }
+    
+    /**
+     * Writes three values as their quantized differences from the baseline, sharing one bit width.
+     */
+    private void writeVector(ByteBuffer out, int index, float x, float y, float z, float scale)
+    {
+        int dx = Math.round(x * scale) - baseline[index];
+        int dy = Math.round(y * scale) - baseline[index + 1];
+        int dz = Math.round(z * scale) - baseline[index + 2];
+        baseline[index] += dx;
+        baseline[index + 1] += dy;
+        baseline[index + 2] += dz;
+        
+        int zx = (dx << 1) ^ (dx >> 31), zy = (dy << 1) ^ (dy >> 31), zz = (dz << 1) ^ (dz >> 31);
+        int width = 32 - Integer.numberOfLeadingZeros(zx | zy | zz);
+        writeBits(out, width, 6);
+        writeBits(out, zx & 0xffffffffL, width);
+        writeBits(out, zy & 0xffffffffL, width);
+        writeBits(out, zz & 0xffffffffL, width);
+    }
+    
+    private void writeVar(ByteBuffer out, int value)
+    {
+        int width = 32 - Integer.numberOfLeadingZeros(value);
+        writeBits(out, width, 6);
+        writeBits(out, value & 0xffffffffL, width);
+    }
+    
+    private void writeBits(ByteBuffer out, long value, int count)
+    {
+        bitBuffer |= (value & ((1L << count) - 1)) << bitCount;
+        bitCount += count;
+        while(bitCount >= 8)
+        {
+            out.put((byte) bitBuffer);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.entities;
+
+import java.util.Arrays;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Keeps the location, orientation, size scale and speed of every {@link wrath.common.entities.Entity} in a {@link wrath.common.world.World}
+ * in one primitive float array per value, indexed by the entity's slot ({@link wrath.common.entities.Entity#getWorldSlot()}).
+ * Systems that update many entities at once can loop straight over the columns instead of visiting each Entity object.
+ * Slots are kept packed: removing an entity moves the last one into its slot.
+ * @author Trent Spears
+ */
+public final class EntityStore
+{
+    /**
+     * Column of the X-coordinates.
+     */
+    public static final int X = 0;
+    /**
+     * Column of the Y-coordinates.
+     */
+    public static final int Y = 1;
+    /**
+     * Column of the Z-coordinates.
+     */
+    public static final int Z = 2;
+    /**
+     * Column of the pitches.
+     */
+    public static final int PITCH = 3;
+    /**
+     * Column of the yaws.
+     */
+    public static final int YAW = 4;
+    /**
+     * Column of the rolls.
+     */
+    public static final int ROLL = 5;
+    /**
+     * Column of the size scales.
+     */
+    public static final int SCALE = 6;
+    /**
+     * Column of the movement speeds.
+     */
+    public static final int SPEED = 7;
+    
+    private static final int COLUMNS = 8;
+    
+    private final float[][] columns = new float[COLUMNS][];
+    private int size = 0;
+    
+    /**
+     * Constructor.
+     */
+    public EntityStore()
+    {
+        this(64);
+    }
+    
+    /**
+     * Constructor.
+     * @param capacity The amount of entities to make room for up front.
+     */
+    public EntityStore(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        for(int i = 0; i < COLUMNS; i++) columns[i] = new float[capacity];
+    }
+    
+    /**
+     * Adds an entity to the end of the store.
+     * @param location The location of the entity.
+     * @param orientation The pitch, yaw and roll of the entity.
+     * @param scale The size scale of the entity.
+     * @param speed The movement speed of the entity.
+     * @return Returns the slot of the entity.
+     */
+    public int add(Vector3f location, Vector3f orientation, float scale, float speed)
+    {
+        if(size == columns[0].length)
+            for(int i = 0; i < COLUMNS; i++) columns[i] = Arrays.copyOf(columns[i], size * 2);
+        
+        int slot = size++;
+        columns[X][slot] = location.x;
+        columns[Y][slot] = location.y;
+        columns[Z][slot] = location.z;
+        columns[PITCH][slot] = orientation.x;
+        columns[YAW][slot] = orientation.y;
+        columns[ROLL][slot] = orientation.z;
+        columns[SCALE][slot] = scale;
+        columns[SPEED][slot] = speed;
+        return slot;
+    }
+    
+    /**
+     * Gets one value of an entity.
+     * @param slot The slot of the entity.
+     * @param column The column of the value, such as {@link #X}.
+     * @return Returns the value.
+     */
+    public float get(int slot, int column)
+    {
+        return columns[column][slot];
+    }
+    
+    /**
+     * Gets a whole column, to read or write the values of every entity at once.
+     * Only the first {@link #size()} values are in use. The array is replaced when the store grows, so it should be fetched again after entities are added.
+     * Values written straight into a column are not reported as entity changes.
+     * @param column The column to get, such as {@link #X}.
+     * @return Returns the array backing the column.
+     */
+    public float[] getColumn(int column)
+    {
+        return columns[column];
+    }
+    
+    /**
+     * Reads the location of an entity into a vector.
+     * @param slot The slot of the entity.
+     * @param dest The {@link org.lwjgl.util.vector.Vector3f} to write the location to.
+     * @return Returns dest.
+     */
+    public Vector3f getLocation(int slot, Vector3f dest)
+    {
+        dest.set(columns[X][slot], columns[Y][slot], columns[Z][slot]);
+        return dest;
+    }
+    
+    /**
+     * Reads the pitch, yaw and roll of an entity into a vector.
+     * @param slot The slot of the entity.
+     * @param dest The {@link org.lwjgl.util.vector.Vector3f} to write the orientation to.
+     * @return Returns dest.
+     */
+    public Vector3f getOrientation(int slot, Vector3f dest)
+    {
+        dest.set(columns[PITCH][slot], columns[YAW][slot], columns[ROLL][slot]);
+        return dest;
+    }
+    
+    /**
+     * Removes an entity from the store, moving the last entity into its slot.
+     * @param slot The slot of the entity to remove.
+     */
+    public void remove(int slot)
+    {
+        int last = --size;
+        if(slot != last)
+            for(float[] column : columns) column[slot] = column[last];
+    }
+    
+    /**
+     * Sets one value of an entity.
+     * @param slot The slot of the entity.
+     * @param column The column of the value, such as {@link #X}.
+     * @param value The new value.
+     */
+    public void set(int slot, int column, float value)
+    {
+        columns[column][slot] = value;
+    }
+    
+    /**
+     * Sets the location of an entity.
+     * @param slot The slot of the entity.
+     * @param x The X-coordinate.
+     * @param y The Y-coordinate.
+     * @param z The Z-coordinate.
+     */
+    public void setLocation(int slot, float x, float y, float z)
+    {
+        columns[X][slot] = x;
+        columns[Y][slot] = y;
+        columns[Z][slot] = z;
+    }
+    
+    /**
+     * Sets the pitch, yaw and roll of an entity.
+     * @param slot The slot of the entity.
+     * @param pitch The pitch.
+     * @param yaw The yaw.
+     * @param roll The roll.
+     */
+    public void setOrientation(int slot, float pitch, float yaw, float roll)
+    {
+        columns[PITCH][slot] = pitch;
+        columns[YAW][slot] = yaw;
+        columns[ROLL][slot] = roll;
+    }
+    
+    /**
+     * Gets the amount of entities in the store.
+     * @return Returns the amount of entities in the store.
+     */
+    public int size()
+    {
+        return size;
+    }
+}
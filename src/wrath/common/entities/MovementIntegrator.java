@@ -0,0 +1,204 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.entities;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import wrath.common.world.World;
+
+/**
+ * Moves every entity of a {@link wrath.common.world.World} along the direction it faces, at its speed, in one batch step.
+ * The {@link wrath.common.entities.EntityStore} columns are split into chunks that are integrated in parallel on a {@link java.util.concurrent.ForkJoinPool}.
+ * Each chunk first works out the facing directions, then advances the locations in a plain loop over primitive arrays that the JIT can vectorize.
+ * Afterwards the entities whose location actually changed are marked as changed and updated in the World's {@link wrath.common.world.SpatialGrid} on the calling thread.
+ * One integrator may be used for several Worlds at the same time, each call works on its own scratch arrays.
+ * <p>
+ * Orientations are read in degrees. An entity with a pitch and yaw of 0 faces down the negative Z-axis, a positive yaw turns it towards positive X and a positive pitch tilts it up.
+ * @author Trent Spears
+ */
+public final class MovementIntegrator
+{
+    private final ForkJoinPool pool;
+    private int chunkSize = 4096;
+    
+    private final AtomicReference<Scratch> spare = new AtomicReference<>();
+    
+    /**
+     * Constructor. Uses the common {@link java.util.concurrent.ForkJoinPool}.
+     */
+    public MovementIntegrator()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Constructor.
+     * @param pool The {@link java.util.concurrent.ForkJoinPool} to integrate the chunks on, such as the {@link wrath.common.scheduler.Scheduler}'s parallel pool. Null to always integrate on the calling thread.
+     */
+    public MovementIntegrator(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+    
+    /**
+     * Gets the amount of entities integrated per chunk.
+     * @return Returns the chunk size.
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+    
+    /**
+     * Moves every entity of a World with a speed other than 0.
+     * Must be called from the thread that owns the World, and no other thread may change its entities until this returns.
+     * @param world The {@link wrath.common.world.World} to move the entities of.
+     * @param delta The time step, in the unit entity speeds are measured in, such as seconds or ticks.
+     * @return Returns the amount of entities whose location changed.
+     */
+    public int integrate(World world, float delta)
+    {
+        EntityStore store = world.getEntityStore();
+        int count = store.size();
+        if(count == 0) return 0;
+        
+        // The last scratch is reused, a call running at the same time as another one makes its own.
+        Scratch scratch = spare.getAndSet(null);
+        if(scratch == null || scratch.dirX.length < count) scratch = new Scratch(store.getColumn(EntityStore.X).length);
+        try
+        {
+            if(pool == null || count <= chunkSize) integrate(store, scratch, 0, count, delta);
+            else pool.invoke(new Chunk(store, scratch, 0, count, delta));
+            
+            float[] dx = scratch.dirX, dy = scratch.dirY, dz = scratch.dirZ;
+            int moved = 0;
+            for(int slot = 0; slot < count; slot++)
+            {
+                if(dx[slot] == 0 && dy[slot] == 0 && dz[slot] == 0) continue;
+                Entity e = world.getEntity(slot);
+                e.markChanged(Entity.CHANGE_LOCATION);
+                world.updateEntityLocation(e);
+                moved++;
+            }
+            return moved;
+        }
+        finally
+        {
+            spare.set(scratch);
+        }
+    }
+    
+    /**
+     * Sets the amount of entities integrated per chunk. Worlds with no more entities than this are integrated on the calling thread.
+     * @param size The chunk size. Default 4096.
+     */
+    public void setChunkSize(int size)
+    {
+        chunkSize = Math.max(size, 64);
+    }
+    
+    private static void integrate(EntityStore store, Scratch scratch, int from, int to, float delta)
+    {
+        float[] pitches = store.getColumn(EntityStore.PITCH), yaws = store.getColumn(EntityStore.YAW), speeds = store.getColumn(EntityStore.SPEED);
+        float[] xs = store.getColumn(EntityStore.X), ys = store.getColumn(EntityStore.Y), zs = store.getColumn(EntityStore.Z);
+        float[] dx = scratch.dirX, dy = scratch.dirY, dz = scratch.dirZ;
+        
+        // Directions, scaled by the distance to travel. Stationary entities are skipped to save the trigonometry.
+        for(int i = from; i < to; i++)
+        {
+            float step = speeds[i] * delta;
+            if(step == 0)
+            {
+                dx[i] = 0;
+                dy[i] = 0;
+                dz[i] = 0;
+                continue;
+            }
+            double pitch = Math.toRadians(pitches[i]), yaw = Math.toRadians(yaws[i]);
+            float horizontal = (float) Math.cos(pitch) * step;
+            dx[i] = (float) Math.sin(yaw) * horizontal;
+            dy[i] = (float) Math.sin(pitch) * step;
+            dz[i] = (float) -Math.cos(yaw) * horizontal;
+        }
+        
+        // The directions are replaced by how far the entities actually moved, which is 0 when a step is too small to change a coordinate.
+        for(int i = from; i < to; i++)
+        {
+            float x = xs[i] + dx[i];
+            dx[i] = x - xs[i];
+            xs[i] = x;
+        }
+        for(int i = from; i < to; i++)
+        {
+            float y = ys[i] + dy[i];
+            dy[i] = y - ys[i];
+            ys[i] = y;
+        }
+        for(int i = from; i < to; i++)
+        {
+            float z = zs[i] + dz[i];
+            dz[i] = z - zs[i];
+            zs[i] = z;
+        }
+    }
+    
+    private final class Chunk extends RecursiveAction
+    {
+        private final EntityStore store;
+        private final Scratch scratch;
+        private final int from, to;
+        private final float delta;
+        
+        private Chunk(EntityStore store, Scratch scratch, int from, int to, float delta)
+        {
+            this.store = store;
+            this.scratch = scratch;
+            this.from = from;
+            this.to = to;
+            this.delta = delta;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if(to - from <= chunkSize)
+            {
+                integrate(store, scratch, from, to, delta);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Chunk(store, scratch, from, middle, delta), new Chunk(store, scratch, middle, to, delta));
+        }
+    }
+    
+    /**
+     * The per-call direction arrays, indexed by slot.
+     */
+    private static final class Scratch
+    {
+        private final float[] dirX, dirY, dirZ;
+        
+        private Scratch(int capacity)
+        {
+            dirX = new float[capacity];
+            dirY = new float[capacity];
+            dirZ = new float[capacity];
+        }
+    }
+}
@@ -17,8 +17,8 @@
  */
 package wrath.common.entities;
 
-import java.util.ArrayList;
 import org.lwjgl.util.vector.Vector3f;
+import wrath.common.EventBus;
 import wrath.common.entities.events.PlayerEventHandler;
 import wrath.common.world.World;
 
@@ -28,7 +28,7 @@ import wrath.common.world.World;
  */
 public class Player extends Entity
 {   
-    private static final ArrayList<PlayerEventHandler> plrHandlers = new ArrayList<>();
+    private static final EventBus<PlayerEventHandler> plrHandlers = new EventBus<>(PlayerEventHandler.class);
     private static RootPlayerEventHandler roothandler = null;
     
     public static void addPlayerEventHandler(PlayerEventHandler handler)
@@ -36,6 +36,15 @@ public class Player extends Entity
         plrHandlers.add(handler);
     }
     
+    /**
+     * Gets the {@link wrath.common.EventBus} of {@link wrath.common.entities.events.PlayerEventHandler}s, to subscribe listeners with {@link wrath.common.EventSubscriber} methods.
+     * @return Returns the {@link wrath.common.EventBus} of player events.
+     */
+    public static EventBus<PlayerEventHandler> getPlayerEventBus()
+    {
+        return plrHandlers;
+    }
+    
     // Object
     
     public Player()
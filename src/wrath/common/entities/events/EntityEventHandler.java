@@ -17,6 +17,9 @@
  */
 package wrath.common.entities.events;
 
+import wrath.common.entities.Entity;
+import wrath.common.world.World;
+
 /**
  * Interface to handle all event from non-player entities.
  * @see wrath.common.entities.Entity
@@ -24,5 +27,12 @@ package wrath.common.entities.events;
  */
 public interface EntityEventHandler
 {
-    
+    /**
+     * Called once per tick for every {@link wrath.common.world.World} that had entities change, from {@link wrath.common.world.World#flushEntityChanges()}.
+     * Each entity is only listed once, no matter how many times it was changed during the tick.
+     * @param world The {@link wrath.common.world.World} the entities are in.
+     * @param entities The entities that changed.
+     * @param fields For each entity, the fields that changed, as a mask of the {@link wrath.common.entities.Entity} CHANGE_ constants.
+     */
+    public default void onEntitiesChanged(World world, Entity[] entities, int[] fields) {}
 }
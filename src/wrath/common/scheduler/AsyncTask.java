@@ -0,0 +1,140 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Task whose blocking part, such as reading a file or saving a World, runs off the ticking thread.
+ * Extend and override {@link #call()} with the blocking work. When the task is due, {@link #call()} is started on a virtual thread,
+ * or on a daemon thread on Java versions without virtual threads, and the tick carries on without waiting.
+ * The result is handed back to the {@link wrath.common.scheduler.Scheduler} and delivered through {@link #getFuture()} on the ticking thread, on the tick after it finished.
+ * If the task is cancelled before its result is delivered, the future fails with a {@link java.util.concurrent.CancellationException} instead, and a {@link #call()} that is still running is left to finish with its result ignored.
+ * @param <T> The type of the result of {@link #call()}.
+ * @author Trent Spears
+ */
+public abstract class AsyncTask<T> extends Task
+{
+    private static final Executor EXECUTOR = createExecutor();
+    
+    private final TaskFuture<T> future = new TaskFuture<>();
+    private final Runnable body = this::runBlocking;
+    private volatile boolean inFlight = false;
+    private T result = null;
+    private Throwable failure = null;
+    
+    /**
+     * Constructor, no arguments needed.
+     */
+    public AsyncTask(){}
+    
+    /**
+     * Override this method with the blocking work. Runs off the ticking thread, so it should not touch game state.
+     * @return Returns the result to deliver to the future.
+     * @throws Exception Any exception thrown fails the future.
+     */
+    protected abstract T call() throws Exception;
+    
+    private static Executor createExecutor()
+    {
+        try
+        {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(ReflectiveOperationException | RuntimeException e)
+        {
+            return Executors.newCachedThreadPool((r) ->
+            {
+                Thread t = new Thread(r, "Wrath Async Task");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+    
+    /**
+     * Gets the future that is completed with the result of the first run of this task.
+     * @return Returns the {@link wrath.common.scheduler.TaskFuture} of this task.
+     */
+    public TaskFuture<T> getFuture()
+    {
+        return future;
+    }
+    
+    /**
+     * Async tasks always hand their result back on the ticking thread, so they are never run in parallel.
+     * @return Returns false.
+     */
+    @Override
+    public boolean isParallelSafe()
+    {
+        return false;
+    }
+    
+    @Override
+    void onCancel()
+    {
+        result = null;
+        failure = null;
+        future.complete(null, new CancellationException("Task was cancelled!"));
+    }
+    
+    @Override
+    boolean isRunComplete()
+    {
+        return !inFlight;
+    }
+    
+    /**
+     * Starts {@link #call()} off the ticking thread, or delivers its result if it has finished.
+     * Called by the {@link wrath.common.scheduler.Scheduler}, do not override.
+     */
+    @Override
+    public final void run()
+    {
+        if(!inFlight)
+        {
+            inFlight = true;
+            EXECUTOR.execute(body);
+        }
+        else
+        {
+            T r = result;
+            Throwable f = failure;
+            result = null;
+            failure = null;
+            inFlight = false;
+            future.complete(r, f);
+        }
+    }
+    
+    private void runBlocking()
+    {
+        try
+        {
+            result = call();
+        }
+        catch(Throwable e)
+        {
+            failure = e;
+        }
+        scheduler.runTaskNextTick(this);
+    }
+}
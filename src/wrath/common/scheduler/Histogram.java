@@ -0,0 +1,146 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of non-negative long values, such as durations in nanoseconds.
+ * Every power of two is split into 32 linear buckets, so any recorded value is reported within about 3% of its real value.
+ * Recording is a few arithmetic operations and never allocates.
+ * Not thread-safe: it should be written by one thread, readings from other threads may be slightly out of date.
+ * @author Trent Spears
+ */
+public class Histogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int SUB_MASK = SUB_COUNT - 1;
+    
+    private final long[] counts = new long[(64 - SUB_BITS) * SUB_COUNT];
+    private long count = 0;
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+    
+    /**
+     * Gets the amount of values recorded.
+     * @return Returns the amount of values recorded.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+    
+    /**
+     * Gets the largest value recorded.
+     * @return Returns the largest value recorded, 0 if empty.
+     */
+    public long getMax()
+    {
+        return max;
+    }
+    
+    /**
+     * Gets the average of all recorded values.
+     * @return Returns the mean of the recorded values, 0 if empty.
+     */
+    public double getMean()
+    {
+        return count == 0 ? 0 : (double) total / count;
+    }
+    
+    /**
+     * Gets the smallest value recorded.
+     * @return Returns the smallest value recorded, 0 if empty.
+     */
+    public long getMin()
+    {
+        return count == 0 ? 0 : min;
+    }
+    
+    /**
+     * Gets the sum of all recorded values.
+     * @return Returns the sum of all recorded values.
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+    
+    /**
+     * Gets the value below which the specified percentage of recorded values fall.
+     * @param percentile The percentile, from 0 to 100. For example 99 for the 99th percentile.
+     * @return Returns the highest value that is equivalent to the value at the percentile, 0 if empty.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if(count == 0) return 0;
+        long target = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count);
+        if(target < 1) target = 1;
+        
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if(seen >= target) return Math.min(max, highestValue(i));
+        }
+        return max;
+    }
+    
+    private static long highestValue(int index)
+    {
+        if(index < SUB_COUNT) return index;
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + (index & SUB_MASK)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+    
+    private static int indexOf(long value)
+    {
+        if(value < SUB_COUNT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & SUB_MASK);
+    }
+    
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value The value to record.
+     */
+    public void record(long value)
+    {
+        if(value < 0) value = 0;
+        counts[indexOf(value)]++;
+        count++;
+        total += value;
+        if(value < min) min = value;
+        if(value > max) max = value;
+    }
+    
+    /**
+     * Removes every recorded value.
+     */
+    public void reset()
+    {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+}
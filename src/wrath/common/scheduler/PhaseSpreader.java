@@ -0,0 +1,127 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+/**
+ * Internal helper that picks start phases for repeating tasks so tasks with the same period do not all land on the same ticks.
+ * The n-th task registered with a period gets the n-th point of the golden ratio sequence as its phase, which stays evenly spread however many tasks there are.
+ * The phase is absolute, the first run of the task is moved to the next tick whose remainder by the period equals the phase.
+ * Registration counts are kept per period in an open-addressed table, so periods are never boxed. The count of a period starts again once all of its tasks are released.
+ * @author Trent Spears
+ */
+final class PhaseSpreader
+{
+    private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+    
+    private long[] periods = new long[64];
+    private long[] counts = new long[64];
+    private long[] live = new long[64];
+    private int size = 0;
+    
+    /**
+     * Gets the ticks to add to the first run of a registered task to move it onto its phase, and clears its phase.
+     * @param task The task about to be scheduled.
+     * @param tick The tick the task would first run on.
+     * @return Returns the ticks to add, 0 if the phase is further away than the jitter tolerance of the task.
+     */
+    synchronized long align(Task task, long tick)
+    {
+        long phase = task.spreadPhase;
+        if(phase < 0) return 0;
+        task.spreadPhase = -1;
+        long offset = Math.floorMod(phase - tick, task.spreadPeriod);
+        return offset <= task.getJitterTolerance() ? offset : 0;
+    }
+    
+    /**
+     * Gives a repeating task the next phase of its period. A task that was already registered is released first.
+     * @param task The task to register.
+     * @param period The period of the task, in ticks.
+     */
+    synchronized void register(Task task, long period)
+    {
+        release(task);
+        if(period < 2 || task.getJitterTolerance() == 0) return;
+        
+        int i = find(period);
+        if(periods[i] == 0)
+        {
+            if(size * 2 >= periods.length)
+            {
+                grow();
+                i = find(period);
+            }
+            periods[i] = period;
+            size++;
+        }
+        long n = counts[i]++;
+        live[i]++;
+        task.spreadPeriod = period;
+        task.spreadPhase = (long) (((n * GOLDEN_RATIO_FRACTION) % 1.0) * period);
+    }
+    
+    /**
+     * Releases the phase of a task so its period can start counting again once every task of it is gone.
+     * Does nothing if the task is not registered.
+     * @param task The cancelled or re-registered task.
+     */
+    synchronized void release(Task task)
+    {
+        long period = task.spreadPeriod;
+        if(period == 0) return;
+        task.spreadPeriod = 0;
+        task.spreadPhase = -1;
+        
+        int i = find(period);
+        if(periods[i] == period && --live[i] == 0) counts[i] = 0;
+    }
+    
+    private int find(long period)
+    {
+        int mask = periods.length - 1;
+        int i = hash(period) & mask;
+        while(periods[i] != 0 && periods[i] != period) i = (i + 1) & mask;
+        return i;
+    }
+    
+    private void grow()
+    {
+        long[] oldPeriods = periods;
+        long[] oldCounts = counts;
+        long[] oldLive = live;
+        periods = new long[oldPeriods.length * 2];
+        counts = new long[oldCounts.length * 2];
+        live = new long[oldLive.length * 2];
+        int mask = periods.length - 1;
+        for(int j = 0; j < oldPeriods.length; j++)
+        {
+            if(oldPeriods[j] == 0) continue;
+            int i = hash(oldPeriods[j]) & mask;
+            while(periods[i] != 0) i = (i + 1) & mask;
+            periods[i] = oldPeriods[j];
+            counts[i] = oldCounts[j];
+            live[i] = oldLive[j];
+        }
+    }
+    
+    private static int hash(long period)
+    {
+        long h = period * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+/**
+ * Task for heavy jobs, such as rebuilding terrain or saving a large World, that are spread across several ticks.
+ * Extend and override {@link #step()} to do one small unit of work, keeping the cursor in the object between calls.
+ * Each tick the task calls {@link #step()} until the slice limit is reached, then continues on the next tick until {@link #step()} reports the job is done.
+ * @author Trent Spears
+ */
+public abstract class ResumableTask extends Task
+{
+    private int sliceItems = Integer.MAX_VALUE;
+    private long sliceTime = 1000000;
+    private boolean working = false;
+    private int slices = 0;
+    
+    /**
+     * Constructor, no arguments needed.
+     */
+    public ResumableTask(){}
+    
+    /**
+     * Override this method to set up the job, such as resetting the cursor. Called on the first slice of every run.
+     */
+    protected void begin(){}
+    
+    /**
+     * Override this method to react to the job being done. Called right after the last {@link #step()}.
+     */
+    protected void finish(){}
+    
+    /**
+     * Gets the amount of slices the current job has taken so far.
+     * @return Returns the amount of ticks the current or last job has been worked on.
+     */
+    public int getSliceCount()
+    {
+        return slices;
+    }
+    
+    /**
+     * Gets the most calls to {@link #step()} made per tick.
+     * @return Returns the most items worked on per slice.
+     */
+    public int getSliceItems()
+    {
+        return sliceItems;
+    }
+    
+    /**
+     * Gets the most time spent calling {@link #step()} per tick.
+     * @return Returns the slice time quantum in nanoseconds.
+     */
+    public long getSliceTime()
+    {
+        return sliceTime;
+    }
+    
+    /**
+     * Returns true if a job has been started and is not done yet.
+     * @return Returns whether or not the task is part way through its job.
+     */
+    public boolean isInProgress()
+    {
+        return working;
+    }
+    
+    @Override
+    boolean isRunComplete()
+    {
+        return !working;
+    }
+    
+    @Override
+    boolean isResuming()
+    {
+        return working;
+    }
+    
+    /**
+     * Works on the job for one slice. If it is not done, the {@link wrath.common.scheduler.Scheduler} runs it again next tick.
+     * Called by the {@link wrath.common.scheduler.Scheduler}, do not override.
+     */
+    @Override
+    public final void run()
+    {
+        if(!working)
+        {
+            working = true;
+            slices = 0;
+            begin();
+        }
+        slices++;
+        
+        long start = System.nanoTime();
+        int items = 0;
+        boolean done;
+        do
+        {
+            done = step();
+            items++;
+        }
+        while(!done && items < sliceItems && System.nanoTime() - start < sliceTime);
+        
+        if(done)
+        {
+            working = false;
+            finish();
+        }
+    }
+    
+    /**
+     * Sets the most calls to {@link #step()} made per tick.
+     * @param items The most items to work on per slice. Default unlimited.
+     */
+    public void setSliceItems(int items)
+    {
+        sliceItems = Math.max(1, items);
+    }
+    
+    /**
+     * Sets the most time spent calling {@link #step()} per tick. At least one step is always made.
+     * @param nanoseconds The slice time quantum in nanoseconds. Default 1 millisecond.
+     */
+    public void setSliceTime(long nanoseconds)
+    {
+        sliceTime = Math.max(0, nanoseconds);
+    }
+    
+    /**
+     * Override this method to do one unit of work of the job.
+     * @return Returns true if the job is done, false if there is more work left.
+     */
+    protected abstract boolean step();
+}
@@ -19,14 +19,25 @@ package wrath.common.scheduler;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import wrath.common.EventBus;
 
 /**
  * Built in scheduler to schedule tasks within the internal loop.
+ * Tasks may be scheduled from any thread. Calls from threads other than the one running {@link #onTick()} are pushed onto a lock-free queue and added at the start of the next tick.
  * @author Trent Spears
  */
 public class Scheduler
 {
-    private static final ArrayList<SchedulerEventHandler> handlerList = new ArrayList<>();
+    private static final EventBus<SchedulerEventHandler> handlerList = new EventBus<>(SchedulerEventHandler.class);
+    private static final int EVENT_TASK_RUN = handlerList.getEvent("onTaskRun");
+    private static final int EVENT_TASK_SCHEDULE = handlerList.getEvent("onTaskSchedule");
+    private static final AtomicReferenceFieldUpdater<Scheduler, Task> SUBMISSIONS = AtomicReferenceFieldUpdater.newUpdater(Scheduler.class, Task.class, "submissions");
+    private static final long CANCEL = -1;
+    private static final AtomicIntegerFieldUpdater<Task> SUBMITTED = AtomicIntegerFieldUpdater.newUpdater(Task.class, "submitted");
     
     /**
      * Adds a {@link wrath.common.scheduler.SchedulerEventHandler} to the list of handlers that responds to events.
@@ -37,11 +48,92 @@ public class Scheduler
         handlerList.add(handler);
     }
     
+    /**
+     * Gets the {@link wrath.common.EventBus} of {@link wrath.common.scheduler.SchedulerEventHandler}s, to subscribe listeners with {@link wrath.common.EventSubscriber} methods.
+     * @return Returns the {@link wrath.common.EventBus} of scheduler events.
+     */
+    public static EventBus<SchedulerEventHandler> getSchedulerEventBus()
+    {
+        return handlerList;
+    }
+    
     // Object
     
-    private final HashMap<Long, TaskList> map = new HashMap<>();
+    private final TimingWheel wheel = new TimingWheel();
+    private final TaskList expired = new TaskList();
+    private final TaskList[] due = new TaskList[TaskPriority.values().length];
+    private final TaskBatch batch = new TaskBatch();
+    private ForkJoinPool pool = null;
+    boolean sharded = false;
     private final RootSchedulerEventHandler rootHandler = new RootSchedulerEventHandler();
-    private long ticks = 0;
+    private volatile Task submissions = null;
+    private volatile Thread tickThread = null;
+    private volatile long ticks = 0;
+    private int pending = 0;
+    private boolean instrumented = false;
+    private final SchedulerStatistics stats = new SchedulerStatistics();
+    private final PhaseSpreader spreader = new PhaseSpreader();
+    private boolean phaseSpreading = false;
+    private long tickBudget = 0;
+    private long totalDeferred = 0;
+    private long overBudgetTicks = 0;
+    private long droppedTasks = 0;
+    private long missedDeadlines = 0;
+    private final ArrayList<TaskGroup> groups = new ArrayList<>();
+    private final HashMap<String, TaskGroup> groupMap = new HashMap<>();
+    private int nextGroup = 0;
+    
+    /**
+     * Constructor.
+     */
+    public Scheduler()
+    {
+        for(int i = 0; i < due.length; i++) due[i] = new TaskList();
+    }
+    
+    /**
+     * Cancels a task and removes it from the scheduler.
+     * Removing a pending task takes constant time and is safe to do from within another task's {@link wrath.common.scheduler.Task#run()}.
+     * When called from another thread, the task is flagged straight away and removed at the start of the next tick.
+     * @param task The task to cancel.
+     */
+    public void cancelTask(Task task)
+    {
+        if(task.isActive()) task.cancelTask();
+        else if(Thread.currentThread() != tickThread) submit(task, CANCEL);
+        else
+        {
+            if(task.list != null)
+            {
+                task.list.remove(task);
+                pending--;
+            }
+            if(task.spreadPeriod != 0) spreader.release(task);
+            task.onCancel();
+        }
+    }
+    
+    /**
+     * Creates a named {@link wrath.common.scheduler.TaskGroup} that limits how many of its tasks run per tick.
+     * If a group with the name already exists, its limit is changed and it is returned instead.
+     * @param name The name of the group.
+     * @param limit The most tasks of the group that may run per tick. Set to 0 for unlimited.
+     * @return Returns the {@link wrath.common.scheduler.TaskGroup} with the specified name.
+     */
+    public TaskGroup createTaskGroup(String name, int limit)
+    {
+        TaskGroup group = groupMap.get(name);
+        if(group != null)
+        {
+            group.setLimit(limit);
+            return group;
+        }
+        
+        group = new TaskGroup(name, this, limit);
+        groupMap.put(name, group);
+        groups.add(group);
+        return group;
+    }
     
     /**
      * Gets the current tick count of the scheduler.
@@ -52,36 +144,198 @@ public class Scheduler
         return ticks;
     }
     
-    private Scheduler getThis()
+    /**
+     * Gets the amount of due tasks that did not fit in the last tick's budget and are waiting to run.
+     * Deferred tasks are run before any other task on the following ticks.
+     * @return Returns the amount of due tasks currently deferred.
+     */
+    public int getDeferredTaskCount()
+    {
+        return dueCount();
+    }
+    
+    /**
+     * Gets the amount of {@link wrath.common.scheduler.TaskPriority#BEST_EFFORT} task runs that were dropped because they missed their deadline.
+     * @return Returns the amount of dropped task runs.
+     */
+    public long getDroppedTaskCount()
+    {
+        return droppedTasks;
+    }
+    
+    /**
+     * Gets the amount of task runs, other than best-effort ones, that happened after their deadline.
+     * @return Returns the amount of task runs that missed their deadline.
+     */
+    public long getMissedDeadlineCount()
+    {
+        return missedDeadlines;
+    }
+    
+    /**
+     * Gets the amount of ticks that ran out of budget and deferred work to the next tick.
+     * @return Returns the amount of ticks that went over budget.
+     */
+    public long getOverBudgetTickCount()
     {
-        return this;
+        return overBudgetTicks;
+    }
+    
+    /**
+     * Gets a {@link wrath.common.scheduler.TaskGroup} made with {@link #createTaskGroup(java.lang.String, int)}.
+     * @param name The name of the group.
+     * @return Returns the {@link wrath.common.scheduler.TaskGroup} with the specified name, null if there is none.
+     */
+    public TaskGroup getTaskGroup(String name)
+    {
+        return groupMap.get(name);
+    }
+    
+    /**
+     * Gets the amount of live tasks waiting to be run, including deferred and throttled tasks.
+     * Tasks scheduled from other threads are counted once they have been taken from the submission queue at the start of a tick.
+     * @return Returns the amount of pending tasks.
+     */
+    public int getPendingTaskCount()
+    {
+        return pending;
+    }
+    
+    /**
+     * Gets the {@link java.util.concurrent.ForkJoinPool} parallel-safe tasks are run on.
+     * @return Returns the {@link java.util.concurrent.ForkJoinPool} parallel-safe tasks are run on, null if parallel execution is disabled.
+     */
+    public ForkJoinPool getParallelPool()
+    {
+        return pool;
+    }
+    
+    /**
+     * Gets the timing readings of this scheduler.
+     * Nothing is recorded unless instrumentation is enabled with {@link #setInstrumentationEnabled(boolean)}.
+     * @return Returns the {@link wrath.common.scheduler.SchedulerStatistics} of this scheduler.
+     */
+    public SchedulerStatistics getStatistics()
+    {
+        return stats;
+    }
+    
+    /**
+     * Gets the maximum amount of time each tick spends running serial tasks.
+     * @return Returns the tick budget in nanoseconds, 0 if unlimited.
+     */
+    public long getTickBudget()
+    {
+        return tickBudget;
+    }
+    
+    /**
+     * Gets the total amount of times a due task was pushed back to the next tick because the tick ran out of budget.
+     * A task that is deferred several ticks in a row is counted once per tick.
+     * @return Returns the total amount of task deferrals.
+     */
+    public long getTotalDeferredTaskCount()
+    {
+        return totalDeferred;
+    }
+    
+    /**
+     * Runs one of the parallel-safe tasks of the current tick that no thread has taken yet.
+     * Used by idle {@link wrath.common.scheduler.ShardedScheduler} shards to take work from busy ones. Safe to be called from any thread.
+     * @return Returns true if a task was run, false if there was nothing to take.
+     */
+    boolean helpParallel()
+    {
+        return batch.runNext();
+    }
+    
+    /**
+     * Returns true if tick and task timings are being recorded, otherwise false.
+     * @return Returns whether or not instrumentation is enabled.
+     */
+    public boolean isInstrumentationEnabled()
+    {
+        return instrumented;
+    }
+    
+    /**
+     * Starts an {@link wrath.common.scheduler.AsyncTask} straight away.
+     * Its result is delivered on the ticking thread, on the tick after the blocking part finishes.
+     * @param <T> The type of the result.
+     * @param task The {@link wrath.common.scheduler.AsyncTask} to start.
+     * @return Returns the {@link wrath.common.scheduler.TaskFuture} of the task.
+     */
+    public <T> TaskFuture<T> runAsync(AsyncTask<T> task)
+    {
+        task.scheduler = this;
+        if(task.isRunComplete()) task.run();
+        return task.getFuture();
+    }
+    
+    /**
+     * Runs blocking work off the ticking thread, such as reading a file.
+     * The result is delivered on the ticking thread, on the tick after the work finishes.
+     * @param <T> The type of the result.
+     * @param work The blocking work to run.
+     * @return Returns the {@link wrath.common.scheduler.TaskFuture} of the work, to chain on the ticking thread.
+     */
+    public <T> TaskFuture<T> runAsync(Callable<T> work)
+    {
+        return runAsync(new AsyncTask<T>()
+        {
+            @Override
+            protected T call() throws Exception
+            {
+                return work.call();
+            }
+        });
+    }
+    
+    /**
+     * Returns true if the first run of repeating tasks is spread across their period, otherwise false.
+     * @return Returns whether or not phase spreading is enabled.
+     */
+    public boolean isPhaseSpreading()
+    {
+        return phaseSpreading;
     }
     
     /**
      * Runs a task repeatedly every {delayInTicks} ticks.
+     * If phase spreading is enabled, the task is given a phase within its period and its first run is moved back onto it, by up to the task's {@link wrath.common.scheduler.Task#getJitterTolerance()},
+     * so that tasks with the same period are evenly spread across it instead of all running on the same ticks. The phase is released when the task is cancelled.
      * @param task The task to execute.
      * @param delayInTicks The amount of time to wait in ticks, repeating every x ticks.
      */
     public void runRepeatingTask(Task task, long delayInTicks)
     {
         task.triggerIsRepeating(delayInTicks);
+        if(phaseSpreading) spreader.register(task, delayInTicks);
         runTaskLater(task, delayInTicks);
     }
     
     /**
      * Runs the task specified after {waitInTicks}.
+     * A task can only be pending once, scheduling a task that is already pending moves it to the new tick.
+     * Cancelled tasks, and {@link wrath.common.scheduler.TaskGraph}s with a dependency cycle, are not scheduled.
      * @param task The task to execute.
-     * @param waitInTicks The amount of times to wait in ticks.
+     * @param waitInTicks The amount of times to wait in ticks. Anything less than 1 is treated as 1.
      */
     public void runTaskLater(Task task, long waitInTicks)
     {
-        if(map.containsKey(ticks + waitInTicks)) map.get(ticks + waitInTicks).addTask(task);
-        else
+        if(!task.isActive() || !task.prepare()) return;
+        if(waitInTicks < 1) waitInTicks = 1;
+        task.scheduler = this;
+        if(Thread.currentThread() != tickThread)
         {
-            TaskList l = new TaskList();
-            l.addTask(task);
-            map.put(ticks + waitInTicks, l);
+            submit(task, waitInTicks);
+            return;
         }
+        
+        if(task.spreadPhase >= 0) waitInTicks += spreader.align(task, ticks + waitInTicks);
+        if(task.list != null) task.list.remove(task);
+        else pending++;
+        wheel.schedule(task, ticks + waitInTicks);
         rootHandler.onTaskSchedule(this, task, ticks + waitInTicks);
     }
     
@@ -91,7 +345,95 @@ public class Scheduler
      */
     public void runTaskNextTick(Task task)
     {
-        runTaskLater(task, ticks + 1);
+        runTaskLater(task, 1);
+    }
+    
+    /**
+     * Pushes a task onto the submission queue, to be scheduled by the ticking thread at the start of the next tick.
+     * If the task is already queued only its wait is updated.
+     * @param task The task to schedule.
+     * @param waitInTicks The amount of ticks to wait, counted from the tick the task is taken from the queue, or {@link #CANCEL} to remove the task.
+     */
+    private void submit(Task task, long waitInTicks)
+    {
+        task.submitWait = waitInTicks;
+        if(!SUBMITTED.compareAndSet(task, 0, 1)) return;
+        
+        Task head;
+        do
+        {
+            head = submissions;
+            task.submitNext = head;
+        }
+        while(!SUBMISSIONS.compareAndSet(this, head, task));
+    }
+    
+    /**
+     * Schedules every task that was submitted from another thread, in the order they were submitted.
+     */
+    private void drainSubmissions()
+    {
+        Task t = SUBMISSIONS.getAndSet(this, null);
+        Task ordered = null;
+        while(t != null)
+        {
+            Task n = t.submitNext;
+            t.submitNext = ordered;
+            ordered = t;
+            t = n;
+        }
+        
+        while(ordered != null)
+        {
+            t = ordered;
+            ordered = t.submitNext;
+            t.submitNext = null;
+            t.submitted = 0;
+            long wait = t.submitWait;
+            if(wait == CANCEL) cancelTask(t);
+            else runTaskLater(t, wait);
+        }
+    }
+    
+    /**
+     * Enables or disables recording of tick durations, per-class task run times, due tasks per tick and late tasks.
+     * Recording costs two {@link java.lang.System#nanoTime()} calls per task and never allocates once every task class has run, so it can be left on.
+     * @param enabled If true, timings are recorded into {@link #getStatistics()}. Default false.
+     */
+    public void setInstrumentationEnabled(boolean enabled)
+    {
+        instrumented = enabled;
+    }
+    
+    /**
+     * Enables or disables spreading the first run of repeating tasks across their period.
+     * @param enabled If true, repeating tasks of the same period are automatically staggered. Default false.
+     */
+    public void setPhaseSpreading(boolean enabled)
+    {
+        phaseSpreading = enabled;
+    }
+    
+    /**
+     * Sets the {@link java.util.concurrent.ForkJoinPool} to run parallel-safe tasks on.
+     * Each tick, every due task marked with {@link wrath.common.scheduler.Task#setParallelSafe(boolean)} is run on the pool while the rest run in order on the ticking thread.
+     * The tick does not complete until all of them have finished.
+     * @param pool The {@link java.util.concurrent.ForkJoinPool} to use, for example {@link java.util.concurrent.ForkJoinPool#commonPool()}. Set to null to run every task on the ticking thread (default).
+     */
+    public void setParallelPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+    
+    /**
+     * Sets the maximum amount of time each tick may spend running serial tasks.
+     * Once the budget is used up, the tasks left are deferred to the next tick, where they run before newly due tasks of the same priority.
+     * At least one task is always run per tick. {@link wrath.common.scheduler.TaskPriority#CRITICAL} and parallel-safe tasks are not limited by the budget.
+     * @param nanoseconds The tick budget in nanoseconds. Set to 0 for no limit (default).
+     */
+    public void setTickBudget(long nanoseconds)
+    {
+        tickBudget = Math.max(0, nanoseconds);
     }
     
     /**
@@ -100,68 +442,169 @@ public class Scheduler
      */
     public void onTick()
     {
+        long start = instrumented || tickBudget > 0 ? System.nanoTime() : 0;
+        if(tickThread != Thread.currentThread()) tickThread = Thread.currentThread();
+        if(submissions != null) drainSubmissions();
+        
         ticks++;
-        if(map.containsKey(ticks))
+        wheel.advance(ticks, expired);
+        Task t;
+        while((t = expired.poll()) != null)
+        {
+            if(t.getGroup() != null) t.getGroup().backlog.add(t);
+            else due[t.getPriority().ordinal()].add(t);
+        }
+        if(!groups.isEmpty()) releaseGroups();
+        int dueCount = dueCount();
+        
+        if(pool != null || sharded)
+        {
+            for(TaskList list : due)
+            {
+                t = list.peek();
+                while(t != null)
+                {
+                    Task n = t.next;
+                    if(t.isParallelSafe() && t.isActive())
+                    {
+                        list.remove(t);
+                        pending--;
+                        if(!dropIfExpired(t)) batch.add(t);
+                    }
+                    t = n;
+                }
+            }
+            if(batch.size() > 0) batch.submit(pool);
+        }
+        
+        try
+        {
+            runSerial(start);
+        }
+        finally
         {
-            map.get(ticks).start();
-            map.remove(ticks);
+            if(batch.size() > 0) finishBatch();
+            if(instrumented) stats.recordTick(System.nanoTime() - start, dueCount);
         }
     }
     
-     /**
-     * Internal class for task scheduler to contain tasks to do on specified tick.
+    /**
+     * Moves the tasks each group may run this tick from their backlogs to the due lists.
+     * The groups take turns releasing one task at a time, starting one group further along every tick.
      */
-    private class TaskList
+    private void releaseGroups()
     {
-        private boolean alive;
-        private final ArrayList<Task> tasks = new ArrayList<>();
-        
-        public TaskList()
+        int count = groups.size();
+        boolean released = true;
+        while(released)
         {
-            alive = true;
+            released = false;
+            for(int i = 0; i < count; i++)
+            {
+                TaskGroup group = groups.get((nextGroup + i) % count);
+                if(group.canRelease())
+                {
+                    Task t = group.backlog.poll();
+                    due[t.getPriority().ordinal()].add(t);
+                    group.released++;
+                    released = true;
+                }
+            }
         }
         
-        /**
-         * Adds a task to the task list.
-         * @param t The task to add to the list.
-         */
-        public void addTask(Task t)
+        for(int i = 0; i < count; i++) groups.get(i).endTick();
+        nextGroup = (nextGroup + 1) % count;
+    }
+    
+    private int dueCount()
+    {
+        int count = 0;
+        for(TaskList list : due) count += list.size();
+        return count;
+    }
+    
+    /**
+     * Checks the deadline of a task that is about to run. The task must not be in any list.
+     * A task that is part-way through its run, such as an {@link wrath.common.scheduler.AsyncTask} delivering its result, is never dropped, or it would never finish.
+     * @param t The task about to run.
+     * @return Returns true if the task is a best-effort task past its deadline and was dropped.
+     */
+    private boolean dropIfExpired(Task t)
+    {
+        long deadline = t.getDeadline();
+        if(deadline < 0 || ticks - t.expiry <= deadline) return false;
+        if(t.getPriority() != TaskPriority.BEST_EFFORT || !t.isRunComplete())
         {
-            if(!tasks.contains(t) && alive) tasks.add(t);
+            missedDeadlines++;
+            return false;
         }
         
-        /**
-         * Returns whether or not this had been run yet.
-         * @return Returns if the list has not been executed yet.
-         */
-        public boolean isAlive()
+        droppedTasks++;
+        if(t.isRepeating()) runTaskLater(t, t.getDelay());
+        return true;
+    }
+    
+    private void runSerial(long start)
+    {
+        Task t;
+        for(int p = 0; p < due.length; p++)
         {
-            return alive;
-        }
-        
-        /**
-         * Launches the execution of all the tasks in the list, can only be used once!.
-         */
-        public void start()
-        {   
-            if(tasks.size() > 0 && alive)
+            TaskList list = due[p];
+            while((t = list.poll()) != null)
             {
-                tasks.stream().forEach((t) -> 
+                pending--;
+                if(!t.isActive() || dropIfExpired(t)) continue;
+                
+                if(instrumented)
                 {
-                    if(t.isActive())
+                    long taskStart = System.nanoTime();
+                    t.run();
+                    stats.recordTask(t, System.nanoTime() - taskStart, ticks - t.expiry);
+                }
+                else t.run();
+                afterRun(t);
+                
+                if(tickBudget > 0 && p != TaskPriority.CRITICAL.ordinal() && System.nanoTime() - start >= tickBudget)
+                {
+                    int left = dueCount();
+                    if(left > 0)
                     {
-                        t.run();
-                        rootHandler.onTaskRun(getThis(), t);
-                        if(t.isRepeating()) runTaskLater(t, t.getDelay());
+                        totalDeferred += left;
+                        overBudgetTicks++;
+                        return;
                     }
-                });
+                }
             }
-            
-            tasks.clear();
-            alive = false;
         }
     }
     
+    private void afterRun(Task t)
+    {
+        if(!t.isRunComplete())
+        {
+            if(t.isResuming()) runTaskNextTick(t);
+            return;
+        }
+        rootHandler.onTaskRun(this, t);
+        if(t.isRepeating()) runTaskLater(t, t.getDelay());
+    }
+    
+    private void finishBatch()
+    {
+        batch.awaitCompletion();
+        for(int i = 0; i < batch.size(); i++)
+        {
+            Task t = batch.get(i);
+            if(instrumented) stats.recordTask(t, t.runTime, ticks - t.expiry);
+            afterRun(t);
+        }
+        
+        Throwable e = batch.clear();
+        if(e instanceof RuntimeException) throw (RuntimeException) e;
+        else if(e instanceof Error) throw (Error) e;
+        else if(e != null) throw new RuntimeException(e);
+    }
+    
     // Event handler
     
     private class RootSchedulerEventHandler implements SchedulerEventHandler
@@ -169,19 +612,13 @@ public class Scheduler
         @Override
         public void onTaskRun(Scheduler scheduler, Task task)
         {
-            handlerList.stream().forEach((h) -> 
-            {
-                h.onTaskRun(scheduler, task);
-            });
+            for(SchedulerEventHandler handler : handlerList.getHandlers(EVENT_TASK_RUN)) handler.onTaskRun(scheduler, task);
         }
 
         @Override
         public void onTaskSchedule(Scheduler scheduler, Task task, long tick)
         {
-            handlerList.stream().forEach((h) -> 
-            {
-                h.onTaskSchedule(scheduler, task, tick);
-            });
+            for(SchedulerEventHandler handler : handlerList.getHandlers(EVENT_TASK_SCHEDULE)) handler.onTaskSchedule(scheduler, task, tick);
         }
     }
 }
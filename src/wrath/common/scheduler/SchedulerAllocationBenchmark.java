@@ -0,0 +1,76 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Benchmark that measures how many bytes the {@link wrath.common.scheduler.Scheduler} allocates per tick on the ticking thread while it runs repeating tasks.
+ * Once warmed up, scheduling and running repeating tasks should allocate nothing, so the benchmark exits with status 1 if any allocation is measured.
+ * Arguments, all optional: the amount of repeating tasks (default 50000), the amount of ticks to warm up (default 20000) and the amount of ticks to measure (default 20000).
+ * Needs a JVM whose {@link java.lang.management.ThreadMXBean} is a {@link com.sun.management.ThreadMXBean}, such as HotSpot.
+ * @author Trent Spears
+ */
+public final class SchedulerAllocationBenchmark
+{
+    private SchedulerAllocationBenchmark(){}
+    
+    /**
+     * Runs the benchmark and prints the bytes allocated per tick.
+     * @param args The amount of repeating tasks, warm-up ticks and measured ticks. All optional.
+     */
+    public static void main(String[] args)
+    {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int warmupTicks = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int measuredTicks = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+        {
+            System.err.println("This JVM can not measure thread allocation!");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        
+        final long[] runs = new long[1];
+        Scheduler scheduler = new Scheduler();
+        // A registered handler, so event dispatch is part of the measurement.
+        Scheduler.addSchedulerEventHandler(new SchedulerEventHandler()
+        {
+            @Override
+            public void onTaskRun(Scheduler s, Task task)
+            {
+                runs[0]++;
+            }
+        });
+        for(int i = 0; i < taskCount; i++) scheduler.runRepeatingTask(new Task(), 1 + i % 700);
+        
+        for(int i = 0; i < warmupTicks; i++) scheduler.onTick();
+        
+        long thread = Thread.currentThread().getId();
+        long runsBefore = runs[0];
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < measuredTicks; i++) scheduler.onTick();
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        
+        System.out.println("Repeating tasks: " + taskCount + ", measured ticks: " + measuredTicks + ", task runs: " + (runs[0] - runsBefore));
+        System.out.println("Allocated: " + allocated + " bytes, " + ((double) allocated / measuredTicks) + " bytes/tick");
+        if(allocated > 0) System.exit(1);
+    }
+}
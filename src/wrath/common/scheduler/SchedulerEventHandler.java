@@ -19,7 +19,7 @@ package wrath.common.scheduler;
 
 /**
  * Interface to handle general {@link wrath.common.scheduler.Scheduler} events.
- * To be implemented by the game developer to receive events.
+ * To be implemented by the game developer to receive events. Only the events that are needed have to be overridden.
  * @author Trent Spears
  */
 public interface SchedulerEventHandler
@@ -29,7 +29,7 @@ public interface SchedulerEventHandler
      * @param scheduler The {@link wrath.common.scheduler.Scheduler} that executed the {@link wrath.common.scheduler.Task}.
      * @param task The {@link wrath.common.scheduler.Task} that was executed.
      */
-    public void onTaskRun(Scheduler scheduler, Task task);
+    public default void onTaskRun(Scheduler scheduler, Task task) {}
     
     /**
      * Called when a {@link wrath.common.scheduler.Task} is scheduled for execution.
@@ -37,5 +37,5 @@ public interface SchedulerEventHandler
      * @param task The {@link wrath.common.scheduler.Task} that was scheduled.
      * @param tick The tick the {@link wrath.common.scheduler.Task} is scheduled to execute on.
      */
-    public void onTaskSchedule(Scheduler scheduler, Task task, long tick);
+    public default void onTaskSchedule(Scheduler scheduler, Task task, long tick) {}
 }
@@ -0,0 +1,135 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Timing readings gathered by a {@link wrath.common.scheduler.Scheduler} while instrumentation is enabled.
+ * Written only by the ticking thread. Readings taken from other threads may be slightly out of date, but the map of task classes is safe to read from any thread.
+ * @see wrath.common.scheduler.Scheduler#setInstrumentationEnabled(boolean)
+ * @author Trent Spears
+ */
+public class SchedulerStatistics
+{
+    private final Histogram tickDurations = new Histogram();
+    private final Histogram dueTasks = new Histogram();
+    private final ConcurrentHashMap<Class<?>, Histogram> taskTimes = new ConcurrentHashMap<>();
+    private long lateTasks = 0;
+    private long maxLateness = 0;
+    
+    /**
+     * Gets the {@link wrath.common.scheduler.Histogram} of how many tasks were due on each tick, including deferred tasks.
+     * @return Returns the {@link wrath.common.scheduler.Histogram} of due tasks per tick.
+     */
+    public Histogram getDueTaskCounts()
+    {
+        return dueTasks;
+    }
+    
+    /**
+     * Gets the amount of tasks that ran on a later tick than they were scheduled for.
+     * @return Returns the amount of late task runs.
+     */
+    public long getLateTaskCount()
+    {
+        return lateTasks;
+    }
+    
+    /**
+     * Gets the most ticks any task ran behind the tick it was scheduled for.
+     * @return Returns the highest lateness in ticks.
+     */
+    public long getMaxLateness()
+    {
+        return maxLateness;
+    }
+    
+    /**
+     * Gets every {@link wrath.common.scheduler.Task} class that has run run-time readings.
+     * @return Returns a {@link java.util.List} of the task classes that have been timed.
+     */
+    public List<Class<?>> getTaskClasses()
+    {
+        return new ArrayList<>(taskTimes.keySet());
+    }
+    
+    /**
+     * Gets the {@link wrath.common.scheduler.Histogram} of run times, in nanoseconds, of every task of the specified class.
+     * @param taskClass The class of {@link wrath.common.scheduler.Task} to get the readings of.
+     * @return Returns the {@link wrath.common.scheduler.Histogram} of run times of the class, null if no task of that class has run.
+     */
+    public Histogram getTaskRunTimes(Class<?> taskClass)
+    {
+        return taskTimes.get(taskClass);
+    }
+    
+    /**
+     * Gets the {@link wrath.common.scheduler.Histogram} of how long each call to {@link wrath.common.scheduler.Scheduler#onTick()} took, in nanoseconds.
+     * @return Returns the {@link wrath.common.scheduler.Histogram} of tick durations.
+     */
+    public Histogram getTickDurations()
+    {
+        return tickDurations;
+    }
+    
+    /**
+     * Records a task run.
+     * @param task The {@link wrath.common.scheduler.Task} that was run.
+     * @param nanoseconds The time the task took to run.
+     * @param lateness The amount of ticks the task ran after its scheduled tick.
+     */
+    void recordTask(Task task, long nanoseconds, long lateness)
+    {
+        Histogram h = taskTimes.get(task.getClass());
+        if(h == null) h = taskTimes.computeIfAbsent(task.getClass(), c -> new Histogram());
+        h.record(nanoseconds);
+        
+        if(lateness > 0)
+        {
+            lateTasks++;
+            if(lateness > maxLateness) maxLateness = lateness;
+        }
+    }
+    
+    /**
+     * Records a finished tick.
+     * @param nanoseconds The time the tick took.
+     * @param due The amount of tasks that were due on the tick.
+     */
+    void recordTick(long nanoseconds, int due)
+    {
+        tickDurations.record(nanoseconds);
+        dueTasks.record(due);
+    }
+    
+    /**
+     * Removes every reading.
+     * Should only be called from the ticking thread, or while the scheduler is not being ticked.
+     */
+    public void reset()
+    {
+        tickDurations.reset();
+        dueTasks.reset();
+        taskTimes.clear();
+        lateTasks = 0;
+        maxLateness = 0;
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import wrath.common.Closeable;
+
+/**
+ * Group of {@link wrath.common.scheduler.Scheduler}s, called shards, that tick at the same time on their own threads.
+ * Tasks are assigned to a shard by a key, such as a {@link wrath.common.world.World} or a region, so several Worlds can be ticked in one JVM without sharing a thread.
+ * A shard that finishes its tick early helps run the parallel-safe tasks of shards that are still busy.
+ * Every shard finishes a tick before any shard starts the next one, so the shards never drift apart.
+ * @author Trent Spears
+ */
+public class ShardedScheduler implements Closeable
+{
+    private final Scheduler[] shards;
+    private final Thread[] threads;
+    private final Phaser phaser;
+    private volatile boolean running = true;
+    
+    /**
+     * Constructor. Starts one thread per shard.
+     * @param shardCount The amount of shards to create.
+     */
+    public ShardedScheduler(int shardCount)
+    {
+        shardCount = Math.max(1, shardCount);
+        shards = new Scheduler[shardCount];
+        threads = new Thread[shardCount];
+        phaser = new Phaser(shardCount + 1);
+        for(int i = 0; i < shardCount; i++)
+        {
+            shards[i] = new Scheduler();
+            shards[i].sharded = true;
+            final int index = i;
+            threads[i] = new Thread(() -> loop(index), "Wrath Scheduler Shard " + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+    
+    /**
+     * Stops every shard thread. The shards can not be ticked after this is called.
+     * The shards are also stopped if a shard thread dies, as the others could never finish a tick without it.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        phaser.forceTermination();
+        for(Thread t : threads)
+        {
+            if(t == Thread.currentThread()) continue;
+            try
+            {
+                t.join();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Gets the current tick count of the shards.
+     * @return Returns the current tick count of the shards.
+     */
+    public long getCurrentTick()
+    {
+        return shards[0].getCurrentTick();
+    }
+    
+    /**
+     * Gets the shard at the specified index.
+     * @param index The index of the shard, from 0 to {@link #getShardCount()} - 1.
+     * @return Returns the {@link wrath.common.scheduler.Scheduler} of the shard.
+     */
+    public Scheduler getShard(int index)
+    {
+        return shards[index];
+    }
+    
+    /**
+     * Gets the shard that tasks with the specified key belong to. The same key always maps to the same shard.
+     * @param key The key, such as a {@link wrath.common.world.World}.
+     * @return Returns the {@link wrath.common.scheduler.Scheduler} of the shard.
+     */
+    public Scheduler getShard(Object key)
+    {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return shards[Math.floorMod(h, shards.length)];
+    }
+    
+    /**
+     * Gets the amount of shards.
+     * @return Returns the amount of shards.
+     */
+    public int getShardCount()
+    {
+        return shards.length;
+    }
+    
+    private void loop(int index)
+    {
+        Scheduler shard = shards[index];
+        try
+        {
+            while(running)
+            {
+                if(phaser.arriveAndAwaitAdvance() < 0) return;
+                try
+                {
+                    shard.onTick();
+                }
+                catch(Throwable e)
+                {
+                    System.err.println("Exception thrown while ticking Scheduler shard " + index + "!");
+                    e.printStackTrace();
+                }
+                
+                boolean helped = true;
+                while(helped)
+                {
+                    helped = false;
+                    for(int i = 1; i < shards.length; i++)
+                        helped |= shards[(index + i) % shards.length].helpParallel();
+                }
+                if(phaser.arriveAndAwaitAdvance() < 0) return;
+            }
+        }
+        finally
+        {
+            // A shard thread that dies can never arrive again, so stop every other thread from waiting for it.
+            if(running)
+            {
+                running = false;
+                phaser.forceTermination();
+            }
+        }
+    }
+    
+    /**
+     * DO NOT run this method! It will completely mess up timings.
+     * For internal engine use only. Ticks every shard and waits until all of them have finished.
+     */
+    public void onTick()
+    {
+        if(!running) return;
+        phaser.arriveAndAwaitAdvance();
+        phaser.arriveAndAwaitAdvance();
+    }
+    
+    /**
+     * Runs a task repeatedly on the shard of the specified key.
+     * @param key The key that selects the shard, such as a {@link wrath.common.world.World}.
+     * @param task The task to execute.
+     * @param delayInTicks The amount of time to wait in ticks, repeating every x ticks.
+     */
+    public void runRepeatingTask(Object key, Task task, long delayInTicks)
+    {
+        getShard(key).runRepeatingTask(task, delayInTicks);
+    }
+    
+    /**
+     * Runs the task on the shard of the specified key after {waitInTicks}.
+     * @param key The key that selects the shard, such as a {@link wrath.common.world.World}.
+     * @param task The task to execute.
+     * @param waitInTicks The amount of times to wait in ticks.
+     */
+    public void runTaskLater(Object key, Task task, long waitInTicks)
+    {
+        getShard(key).runTaskLater(task, waitInTicks);
+    }
+    
+    /**
+     * Sets the {@link java.util.concurrent.ForkJoinPool} every shard runs its parallel-safe tasks on.
+     * @param pool The {@link java.util.concurrent.ForkJoinPool} to use. Set to null to run parallel-safe tasks on the shard threads only (default), idle shards still take them from busy ones.
+     */
+    public void setParallelPool(ForkJoinPool pool)
+    {
+        for(Scheduler s : shards) s.setParallelPool(pool);
+    }
+}
@@ -24,10 +24,28 @@ package wrath.common.scheduler;
  */
 public class Task
 {   
-    private boolean active = true;
+    private volatile boolean active = true;
+    private long deadline = -1;
     private long delay = 0;
+    private TaskGroup group = null;
+    private long jitterTolerance = Long.MAX_VALUE;
+    private boolean parallelSafe = false;
+    private TaskPriority priority = TaskPriority.NORMAL;
     private boolean repeating = false;
     
+    // Scheduler internals
+    long expiry = 0;
+    TaskList list = null;
+    Task next = null;
+    Task prev = null;
+    Scheduler scheduler = null;
+    long runTime = 0;
+    long spreadPeriod = 0;
+    long spreadPhase = -1;
+    volatile int submitted = 0;
+    volatile long submitWait = 0;
+    Task submitNext = null;
+    
     /**
      * Constructor, no arguments needed.
      */
@@ -35,10 +53,23 @@ public class Task
     
     /**
      * Cancels the execution of the task.
+     * If the task is pending in a {@link wrath.common.scheduler.Scheduler}, it is removed from it straight away.
+     * An {@link wrath.common.scheduler.AsyncTask} that is cancelled before its result is delivered has its future failed with a {@link java.util.concurrent.CancellationException}.
      */
     public void cancelTask()
     {
         active = false;
+        Scheduler s = scheduler;
+        if(s != null) s.cancelTask(this);
+    }
+    
+    /**
+     * Gets the most ticks the task may run after the tick it was scheduled for.
+     * @return Returns the deadline of the task in ticks, -1 if it has none.
+     */
+    public long getDeadline()
+    {
+        return deadline;
     }
     
     /**
@@ -50,6 +81,15 @@ public class Task
         return delay;
     }
     
+    /**
+     * Gets the most ticks the first run of this task may be moved back by to spread the load of repeating tasks, when phase spreading is enabled on the {@link wrath.common.scheduler.Scheduler}.
+     * @return Returns the jitter tolerance of the task in ticks.
+     */
+    public long getJitterTolerance()
+    {
+        return jitterTolerance;
+    }
+    
     /**
      * Returns true if task is to execute, otherwise false.
      * @return Returns whether or not the task has been canceled. True is alive, false if canceled.
@@ -59,6 +99,43 @@ public class Task
         return active;
     }
     
+    /**
+     * Gets the {@link wrath.common.scheduler.TaskGroup} the task belongs to.
+     * @return Returns the {@link wrath.common.scheduler.TaskGroup} of the task, null if it is not in a group.
+     */
+    public TaskGroup getGroup()
+    {
+        return group;
+    }
+    
+    /**
+     * Gets the {@link wrath.common.scheduler.TaskPriority} of the task.
+     * @return Returns the {@link wrath.common.scheduler.TaskPriority} of the task.
+     */
+    public TaskPriority getPriority()
+    {
+        return priority;
+    }
+    
+    /**
+     * Returns false if the last call to {@link #run()} only started the task's work and the task will be run again to finish it.
+     * The {@link wrath.common.scheduler.Scheduler} only reports and repeats a task once its run is complete.
+     * @return Returns whether or not the last run of the task is complete.
+     */
+    boolean isRunComplete()
+    {
+        return true;
+    }
+    
+    /**
+     * Returns true if the task may be run at the same time as other parallel-safe tasks, otherwise false.
+     * @return Returns whether or not the task has been marked parallel-safe.
+     */
+    public boolean isParallelSafe()
+    {
+        return parallelSafe;
+    }
+    
     /**
      * Returns true if the task is repeating, otherwise false.
      * @return Returns whether or not the task will repeat once executed.
@@ -68,11 +145,88 @@ public class Task
         return repeating;
     }
     
+    /**
+     * Returns true if the task is part-way through a job that the {@link wrath.common.scheduler.Scheduler} must run again next tick.
+     * Checked on the ticking thread after every run, so tasks run on a worker thread are resumed on the very next tick too.
+     * @return Returns whether or not the task must be run again next tick.
+     */
+    boolean isResuming()
+    {
+        return false;
+    }
+    
+    /**
+     * Called by the {@link wrath.common.scheduler.Scheduler} on the ticking thread once the task has been cancelled and removed from it.
+     * May be called more than once if the task is cancelled again.
+     */
+    void onCancel() {}
+    
+    /**
+     * Checks that the task can be scheduled, called every time it is scheduled.
+     * @return Returns false if the task is invalid and must not be scheduled.
+     */
+    boolean prepare()
+    {
+        return true;
+    }
+    
     /**
      * Override this method to execute tasks within the internal scheduler.
      */
     public void run() {}
     
+    /**
+     * Sets the most ticks the task may run after the tick it was scheduled for, for example when it is deferred because a tick went over budget.
+     * A {@link wrath.common.scheduler.TaskPriority#BEST_EFFORT} task that misses its deadline is dropped, unless it is part-way through a run such as an {@link wrath.common.scheduler.AsyncTask} delivering its result. Any other task is still run, and counted as having missed its deadline.
+     * @param ticks The deadline in ticks. Set to -1 for no deadline (default).
+     */
+    public void setDeadline(long ticks)
+    {
+        deadline = ticks < 0 ? -1 : ticks;
+    }
+    
+    /**
+     * Sets the {@link wrath.common.scheduler.TaskGroup} the task belongs to, limiting how often tasks of the group run per tick.
+     * The task must be scheduled on the {@link wrath.common.scheduler.Scheduler} that created the group. Should not be changed while the task is waiting to run.
+     * @param group The {@link wrath.common.scheduler.TaskGroup} of the task. Set to null to remove it from its group (default).
+     */
+    public void setGroup(TaskGroup group)
+    {
+        this.group = group;
+    }
+    
+    /**
+     * Sets the most ticks the first run of this task may be moved back by when it is scheduled with {@link wrath.common.scheduler.Scheduler#runRepeatingTask(wrath.common.scheduler.Task, long)}.
+     * Only has an effect if phase spreading is enabled with {@link wrath.common.scheduler.Scheduler#setPhaseSpreading(boolean)}, which it is not by default.
+     * Repeating tasks with the same period are then spread across the period so they do not all run on the same ticks. The period itself is never changed.
+     * If the phase picked for the task is further away than the tolerance, the task is not moved.
+     * @param ticks The jitter tolerance in ticks. Set to 0 to always run exactly one period after being scheduled. Default is the whole period.
+     */
+    public void setJitterTolerance(long ticks)
+    {
+        jitterTolerance = Math.max(0, ticks);
+    }
+    
+    /**
+     * Marks the task as safe to run on a worker thread, at the same time as other parallel-safe tasks.
+     * Only has an effect if the {@link wrath.common.scheduler.Scheduler} has a parallel pool set.
+     * @param parallelSafe If true, the task may be run in parallel.
+     */
+    public void setParallelSafe(boolean parallelSafe)
+    {
+        this.parallelSafe = parallelSafe;
+    }
+    
+    /**
+     * Sets the {@link wrath.common.scheduler.TaskPriority} of the task. Tasks due on the same tick are run from the highest priority to the lowest.
+     * Should not be changed while the task is waiting to run.
+     * @param priority The {@link wrath.common.scheduler.TaskPriority} of the task. Default {@link wrath.common.scheduler.TaskPriority#NORMAL}.
+     */
+    public void setPriority(TaskPriority priority)
+    {
+        this.priority = priority;
+    }
+    
     /**
      * Set the task to be repeating every x ticks. Equivalent to runRepeatingTask() in Scheduler.
      * @param ticksDelay The amount of ticks to wait to run again.
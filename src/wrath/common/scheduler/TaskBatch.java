@@ -0,0 +1,165 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Internal batch of parallel-safe {@link wrath.common.scheduler.Task}s that are run together on a {@link java.util.concurrent.ForkJoinPool} within one tick.
+ * Any thread may take tasks from a published batch, workers simply claim the next index until none are left.
+ * The run time of each task is stored in the task so the ticking thread can record it once the batch is done.
+ * @author Trent Spears
+ */
+final class TaskBatch
+{
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile int limit = 0;
+    private volatile Throwable failure = null;
+    private Task[] tasks = new Task[16];
+    private int size = 0;
+    private Worker[] workers = new Worker[0];
+    
+    /**
+     * Adds a task to the batch. Only to be called by the owning tick thread before {@link #submit(java.util.concurrent.ForkJoinPool)}.
+     * @param t The task to add.
+     */
+    void add(Task t)
+    {
+        if(size == tasks.length) tasks = Arrays.copyOf(tasks, size * 2);
+        tasks[size++] = t;
+    }
+    
+    /**
+     * Runs the remaining tasks on the calling thread and waits for the tasks taken by other threads to finish.
+     */
+    void awaitCompletion()
+    {
+        while(runNext());
+        while(remaining.get() != 0) Thread.yield();
+    }
+    
+    /**
+     * Empties the batch so it can be filled for the next tick.
+     * @return Returns the first {@link java.lang.Throwable} thrown by a task in the batch, null if every task finished normally.
+     */
+    Throwable clear()
+    {
+        limit = 0;
+        cursor.set(0);
+        Arrays.fill(tasks, 0, size, null);
+        size = 0;
+        Throwable ret = failure;
+        failure = null;
+        return ret;
+    }
+    
+    /**
+     * Gets a task in the batch.
+     * @param index The index of the task.
+     * @return Returns the task at the specified index.
+     */
+    Task get(int index)
+    {
+        return tasks[index];
+    }
+    
+    /**
+     * Claims and runs the next task of the batch, if there is one left.
+     * Safe to be called from any thread.
+     * @return Returns true if a task was run, false if every task has already been claimed.
+     */
+    boolean runNext()
+    {
+        int i;
+        do
+        {
+            i = cursor.get();
+            if(i >= limit) return false;
+        }
+        while(!cursor.compareAndSet(i, i + 1));
+        
+        Task t = tasks[i];
+        long start = System.nanoTime();
+        try
+        {
+            t.run();
+        }
+        catch(Throwable e)
+        {
+            if(failure == null) failure = e;
+        }
+        finally
+        {
+            t.runTime = System.nanoTime() - start;
+            remaining.decrementAndGet();
+        }
+        return true;
+    }
+    
+    /**
+     * Gets the amount of tasks in the batch.
+     * @return Returns the amount of tasks in the batch.
+     */
+    int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Publishes the batch and forks workers on the specified pool to run it.
+     * @param pool The {@link java.util.concurrent.ForkJoinPool} to run the tasks on, null to only publish the batch for other threads to help with.
+     */
+    void submit(ForkJoinPool pool)
+    {
+        remaining.set(size);
+        limit = size;
+        if(pool == null) return;
+        
+        int count = Math.min(pool.getParallelism(), size);
+        if(workers.length < count)
+        {
+            Worker[] n = Arrays.copyOf(workers, count);
+            for(int i = workers.length; i < count; i++) n[i] = new Worker();
+            workers = n;
+        }
+        
+        for(int i = 0; i < count; i++)
+        {
+            Worker w = workers[i];
+            if(w.forked && !w.isDone()) continue;
+            if(w.forked) w.reinitialize();
+            w.forked = true;
+            pool.execute(w);
+        }
+    }
+    
+    private final class Worker extends RecursiveAction
+    {
+        private boolean forked = false;
+        
+        @Override
+        protected void compute()
+        {
+            while(runNext());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Handle to the result of an {@link wrath.common.scheduler.AsyncTask}.
+ * The future is completed, and every callback is run, on the ticking thread of the {@link wrath.common.scheduler.Scheduler}, so callbacks may touch game state freely.
+ * Callbacks should only be added from the ticking thread.
+ * @param <T> The type of the result.
+ * @author Trent Spears
+ */
+public class TaskFuture<T>
+{
+    private final ArrayList<Runnable> callbacks = new ArrayList<>(1);
+    private boolean done = false;
+    private T result = null;
+    private Throwable failure = null;
+    
+    /**
+     * Completes the future and runs every callback added so far.
+     * Does nothing if the future is already done.
+     * @param result The result, null if failed.
+     * @param failure The {@link java.lang.Throwable} that caused the failure, null if successful.
+     */
+    void complete(T result, Throwable failure)
+    {
+        if(done) return;
+        this.result = result;
+        this.failure = failure;
+        done = true;
+        for(int i = 0; i < callbacks.size(); i++) callbacks.get(i).run();
+        callbacks.clear();
+    }
+    
+    /**
+     * Gets the {@link java.lang.Throwable} the task failed with.
+     * @return Returns the {@link java.lang.Throwable} the task failed with, null if it has not failed.
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+    
+    /**
+     * Gets the result of the task.
+     * @return Returns the result of the task, null if it is not done or has failed.
+     */
+    public T getResult()
+    {
+        return result;
+    }
+    
+    /**
+     * Returns true if the task was cancelled before its result was delivered.
+     * A cancelled future is also failed, with a {@link java.util.concurrent.CancellationException}.
+     * @return Returns whether or not the task was cancelled.
+     */
+    public boolean isCancelled()
+    {
+        return failure instanceof CancellationException;
+    }
+    
+    /**
+     * Returns true if the task has finished, either successfully or not.
+     * @return Returns whether or not the future is done.
+     */
+    public boolean isDone()
+    {
+        return done;
+    }
+    
+    /**
+     * Returns true if the task finished by throwing an exception.
+     * @return Returns whether or not the task failed.
+     */
+    public boolean isFailed()
+    {
+        return failure != null;
+    }
+    
+    /**
+     * Runs the specified action with the result once the task has finished successfully.
+     * @param action The action to run with the result.
+     * @return Returns this future.
+     */
+    public TaskFuture<T> onSuccess(Consumer<? super T> action)
+    {
+        whenDone(() ->
+        {
+            if(failure == null) action.accept(result);
+        });
+        return this;
+    }
+    
+    /**
+     * Runs the specified action with the failure once the task has thrown an exception.
+     * @param action The action to run with the failure.
+     * @return Returns this future.
+     */
+    public TaskFuture<T> onFailure(Consumer<Throwable> action)
+    {
+        whenDone(() ->
+        {
+            if(failure != null) action.accept(failure);
+        });
+        return this;
+    }
+    
+    /**
+     * Transforms the result once the task has finished successfully.
+     * A failure, or an exception thrown by the function, fails the returned future.
+     * @param <R> The type of the new result.
+     * @param function The function to transform the result with.
+     * @return Returns a new future for the transformed result.
+     */
+    public <R> TaskFuture<R> thenApply(Function<? super T, ? extends R> function)
+    {
+        TaskFuture<R> next = new TaskFuture<>();
+        whenDone(() ->
+        {
+            if(failure != null) next.complete(null, failure);
+            else
+            {
+                R r;
+                try
+                {
+                    r = function.apply(result);
+                }
+                catch(RuntimeException e)
+                {
+                    next.complete(null, e);
+                    return;
+                }
+                next.complete(r, null);
+            }
+        });
+        return next;
+    }
+    
+    /**
+     * Starts another asynchronous step once the task has finished successfully, such as saving a file after reading another one.
+     * A failure, or an exception thrown by the function, fails the returned future.
+     * @param <R> The type of the new result.
+     * @param function The function that starts the next step and returns its future.
+     * @return Returns a new future that completes when the future returned by the function does.
+     */
+    public <R> TaskFuture<R> thenCompose(Function<? super T, TaskFuture<R>> function)
+    {
+        TaskFuture<R> next = new TaskFuture<>();
+        whenDone(() ->
+        {
+            if(failure != null) next.complete(null, failure);
+            else
+            {
+                TaskFuture<R> step;
+                try
+                {
+                    step = function.apply(result);
+                }
+                catch(RuntimeException e)
+                {
+                    next.complete(null, e);
+                    return;
+                }
+                step.whenDone(() -> next.complete(step.result, step.failure));
+            }
+        });
+        return next;
+    }
+    
+    private void whenDone(Runnable callback)
+    {
+        if(done) callback.run();
+        else callbacks.add(callback);
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Task made of several {@link wrath.common.scheduler.Task}s with ordering constraints between them, such as "physics before visibility before replication".
+ * When the graph runs, every task whose dependencies have finished is started on the {@link wrath.common.scheduler.Scheduler}'s parallel pool,
+ * or the common {@link java.util.concurrent.ForkJoinPool} if it has none, so independent tasks run at the same time.
+ * The graph's run does not return until every task in it has finished.
+ * Cycles are detected when the graph is scheduled, a graph with a cycle is not scheduled.
+ * Tasks that finish over several ticks, {@link wrath.common.scheduler.AsyncTask}s and {@link wrath.common.scheduler.ResumableTask}s, cannot be part of a graph.
+ * A task in the graph that has been cancelled is skipped, and the tasks that depend on it start as if it had finished.
+ * @author Trent Spears
+ */
+public class TaskGraph extends Task
+{
+    private final ArrayList<Task> tasks = new ArrayList<>();
+    private final IdentityHashMap<Task, Integer> indices = new IdentityHashMap<>();
+    private final ArrayList<int[]> edges = new ArrayList<>();
+    private final Root root = new Root();
+    private Node[] nodes = new Node[0];
+    private boolean compiled = true;
+    private boolean started = false;
+    private volatile Throwable failure = null;
+    
+    /**
+     * Constructor, no arguments needed.
+     */
+    public TaskGraph(){}
+    
+    /**
+     * Adds a dependency, so that one task only starts once another has finished.
+     * Tasks that are not in the graph yet are added.
+     * @param before The {@link wrath.common.scheduler.Task} that must finish first.
+     * @param after The {@link wrath.common.scheduler.Task} that must wait for it.
+     * @return Returns this graph.
+     * @throws IllegalArgumentException If either task is an {@link wrath.common.scheduler.AsyncTask} or a {@link wrath.common.scheduler.ResumableTask}.
+     */
+    public TaskGraph addDependency(Task before, Task after)
+    {
+        checkTask(before);
+        checkTask(after);
+        addTask(before);
+        addTask(after);
+        edges.add(new int[]{indices.get(before), indices.get(after)});
+        compiled = false;
+        return this;
+    }
+    
+    /**
+     * Adds a task with no dependencies to the graph. Does nothing if the task is already in the graph.
+     * @param task The {@link wrath.common.scheduler.Task} to add.
+     * @return Returns this graph.
+     * @throws IllegalArgumentException If the task is an {@link wrath.common.scheduler.AsyncTask} or a {@link wrath.common.scheduler.ResumableTask}.
+     */
+    public TaskGraph addTask(Task task)
+    {
+        checkTask(task);
+        if(indices.containsKey(task)) return this;
+        indices.put(task, tasks.size());
+        tasks.add(task);
+        compiled = false;
+        return this;
+    }
+    
+    /**
+     * Checks that a task finishes within its run, so the graph can wait for it.
+     * @param task The {@link wrath.common.scheduler.Task} to check.
+     */
+    private static void checkTask(Task task)
+    {
+        if(task instanceof AsyncTask || task instanceof ResumableTask)
+            throw new IllegalArgumentException("TaskGraph cannot run '" + task.getClass().getName() + "', it finishes over several ticks and needs to be scheduled on its own!");
+    }
+    
+    /**
+     * Sorts the tasks and builds the nodes that are run, checking for cycles.
+     * @return Returns false if the dependencies form a cycle.
+     */
+    private boolean compile()
+    {
+        int n = tasks.size();
+        int[] dependencies = new int[n];
+        int[] successorCounts = new int[n];
+        for(int[] e : edges)
+        {
+            successorCounts[e[0]]++;
+            dependencies[e[1]]++;
+        }
+        
+        int[][] successors = new int[n][];
+        for(int i = 0; i < n; i++) successors[i] = new int[successorCounts[i]];
+        int[] filled = new int[n];
+        for(int[] e : edges) successors[e[0]][filled[e[0]]++] = e[1];
+        
+        int[] order = new int[n];
+        int[] remaining = dependencies.clone();
+        int head = 0, tail = 0;
+        for(int i = 0; i < n; i++) if(remaining[i] == 0) order[tail++] = i;
+        while(head < tail)
+        {
+            int i = order[head++];
+            for(int s : successors[i]) if(--remaining[s] == 0) order[tail++] = s;
+        }
+        
+        if(tail < n)
+        {
+            StringBuilder cycle = new StringBuilder();
+            for(int i = 0; i < n; i++)
+                if(remaining[i] > 0) cycle.append(cycle.length() == 0 ? "" : ", ").append(tasks.get(i).getClass().getName());
+            System.err.println("Could not schedule TaskGraph, its dependencies form a cycle between: " + cycle + "!");
+            return false;
+        }
+        
+        Node[] built = new Node[n];
+        for(int i = 0; i < n; i++) built[i] = new Node(tasks.get(i), dependencies[i]);
+        for(int i = 0; i < n; i++)
+        {
+            built[i].successors = new Node[successors[i].length];
+            for(int j = 0; j < successors[i].length; j++) built[i].successors[j] = built[successors[i][j]];
+        }
+        
+        nodes = built;
+        started = false;
+        compiled = true;
+        return true;
+    }
+    
+    /**
+     * Gets the amount of tasks in the graph.
+     * @return Returns the amount of tasks in the graph.
+     */
+    public int getTaskCount()
+    {
+        return tasks.size();
+    }
+    
+    @Override
+    boolean prepare()
+    {
+        return compiled || compile();
+    }
+    
+    /**
+     * Runs every task in the graph, respecting their dependencies, and waits for all of them to finish.
+     * The first exception thrown by a task is rethrown once the rest have finished.
+     */
+    @Override
+    public void run()
+    {
+        if(!prepare() || nodes.length == 0) return;
+        
+        for(Node n : nodes)
+        {
+            if(started) n.quietlyJoin();
+            n.reinitialize();
+            n.waiting.set(n.dependencies);
+        }
+        root.reinitialize();
+        root.setPendingCount(nodes.length);
+        started = true;
+        
+        Scheduler s = scheduler;
+        ForkJoinPool pool = s != null && s.getParallelPool() != null ? s.getParallelPool() : ForkJoinPool.commonPool();
+        pool.invoke(root);
+        
+        Throwable e = failure;
+        failure = null;
+        if(e instanceof RuntimeException) throw (RuntimeException) e;
+        else if(e instanceof Error) throw (Error) e;
+        else if(e != null) throw new RuntimeException(e);
+    }
+    
+    private final class Node extends RecursiveAction
+    {
+        private final Task task;
+        private final int dependencies;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private Node[] successors;
+        
+        private Node(Task task, int dependencies)
+        {
+            this.task = task;
+            this.dependencies = dependencies;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            try
+            {
+                if(task.isActive()) task.run();
+            }
+            catch(Throwable e)
+            {
+                if(failure == null) failure = e;
+            }
+            
+            for(Node n : successors)
+                if(n.waiting.decrementAndGet() == 0) n.fork();
+            root.tryComplete();
+        }
+    }
+    
+    private final class Root extends CountedCompleter<Void>
+    {
+        @Override
+        public void compute()
+        {
+            for(Node n : nodes)
+                if(n.dependencies == 0) n.fork();
+            tryComplete();
+        }
+    }
+}
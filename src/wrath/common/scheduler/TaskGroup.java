@@ -0,0 +1,148 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+/**
+ * A named group of tasks that share a limit on how many of them may run per tick, such as one task per entity of a subsystem.
+ * Due tasks of a group wait in the group's backlog until there is room for them. The groups of a {@link wrath.common.scheduler.Scheduler} take turns releasing one task each,
+ * starting from a different group every tick, so a tick that runs out of budget is shared fairly between them.
+ * Groups are created with {@link wrath.common.scheduler.Scheduler#createTaskGroup(java.lang.String, int)}.
+ * @author Trent Spears
+ */
+public final class TaskGroup
+{
+    private final String name;
+    private final Scheduler scheduler;
+    private int limit;
+    
+    final TaskList backlog = new TaskList();
+    int released = 0;
+    private long totalReleased = 0;
+    private long throttledTicks = 0;
+    private int maxBacklog = 0;
+    
+    TaskGroup(String name, Scheduler scheduler, int limit)
+    {
+        this.name = name;
+        this.scheduler = scheduler;
+        setLimit(limit);
+    }
+    
+    /**
+     * Gets the amount of due tasks of this group waiting for their turn to run.
+     * @return Returns the amount of tasks in the backlog of this group.
+     */
+    public int getBacklogSize()
+    {
+        return backlog.size();
+    }
+    
+    /**
+     * Gets the most tasks of this group that may run per tick.
+     * @return Returns the limit of tasks per tick, 0 if unlimited.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+    
+    /**
+     * Gets the largest the backlog of this group has been at the end of a tick.
+     * @return Returns the largest backlog of this group.
+     */
+    public int getMaxBacklogSize()
+    {
+        return maxBacklog;
+    }
+    
+    /**
+     * Gets the name of this group.
+     * @return Returns the name of this group.
+     */
+    public String getName()
+    {
+        return name;
+    }
+    
+    /**
+     * Gets the {@link wrath.common.scheduler.Scheduler} this group belongs to.
+     * @return Returns the {@link wrath.common.scheduler.Scheduler} this group belongs to.
+     */
+    public Scheduler getScheduler()
+    {
+        return scheduler;
+    }
+    
+    /**
+     * Gets the amount of ticks this group reached its limit with tasks still left in its backlog.
+     * @return Returns the amount of ticks this group was throttled.
+     */
+    public long getThrottledTickCount()
+    {
+        return throttledTicks;
+    }
+    
+    /**
+     * Gets the total amount of tasks this group has released to run.
+     * @return Returns the total amount of tasks released.
+     */
+    public long getTotalReleasedCount()
+    {
+        return totalReleased;
+    }
+    
+    /**
+     * Resets the backlog metrics of this group.
+     */
+    public void resetStatistics()
+    {
+        totalReleased = 0;
+        throttledTicks = 0;
+        maxBacklog = 0;
+    }
+    
+    /**
+     * Sets the most tasks of this group that may run per tick.
+     * @param limit The limit of tasks per tick. Set to 0 for unlimited.
+     */
+    public void setLimit(int limit)
+    {
+        this.limit = Math.max(limit, 0);
+    }
+    
+    /**
+     * Returns true if the group may release another task this tick.
+     * @return Returns whether or not the group has tasks left and is under its limit.
+     */
+    boolean canRelease()
+    {
+        return !backlog.isEmpty() && (limit == 0 || released < limit);
+    }
+    
+    /**
+     * Records the metrics of the tick that just released its tasks and gets the group ready for the next one.
+     */
+    void endTick()
+    {
+        totalReleased += released;
+        released = 0;
+        int size = backlog.size();
+        if(size > 0) throttledTicks++;
+        if(size > maxBacklog) maxBacklog = size;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+/**
+ * Internal first-in-first-out list of {@link wrath.common.scheduler.Task}s.
+ * The links are stored in the Tasks themselves, so adding and removing never allocates and a Task can only be in one list at a time.
+ * @author Trent Spears
+ */
+final class TaskList
+{
+    private Task head = null;
+    private Task tail = null;
+    private int size = 0;
+    
+    /**
+     * Adds a task to the end of the list.
+     * The task must not currently be in any list.
+     * @param t The task to add to the list.
+     */
+    void add(Task t)
+    {
+        t.list = this;
+        t.prev = tail;
+        t.next = null;
+        if(tail == null) head = t;
+        else tail.next = t;
+        tail = t;
+        size++;
+    }
+    
+    /**
+     * Returns whether or not the list has no tasks in it.
+     * @return Returns true if the list is empty.
+     */
+    boolean isEmpty()
+    {
+        return head == null;
+    }
+    
+    /**
+     * Gets the first task in the list without removing it.
+     * The rest of the list can be walked through {@link wrath.common.scheduler.Task#next}.
+     * @return Returns the first task in the list, null if the list is empty.
+     */
+    Task peek()
+    {
+        return head;
+    }
+    
+    /**
+     * Removes and returns the first task in the list.
+     * @return Returns the first task in the list, null if the list is empty.
+     */
+    Task poll()
+    {
+        Task t = head;
+        if(t != null) remove(t);
+        return t;
+    }
+    
+    /**
+     * Removes the task from this list.
+     * The task must currently be in this list.
+     * @param t The task to remove.
+     */
+    void remove(Task t)
+    {
+        if(t.prev == null) head = t.next;
+        else t.prev.next = t.next;
+        if(t.next == null) tail = t.prev;
+        else t.next.prev = t.prev;
+        t.list = null;
+        t.prev = null;
+        t.next = null;
+        size--;
+    }
+    
+    /**
+     * Gets the amount of tasks in the list.
+     * @return Returns the amount of tasks in the list.
+     */
+    int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Moves every task in this list to the end of another list, keeping their order.
+     * @param other The list to move the tasks into.
+     */
+    void transferTo(TaskList other)
+    {
+        if(head == null) return;
+        for(Task t = head; t != null; t = t.next) t.list = other;
+        if(other.tail == null) other.head = head;
+        else
+        {
+            other.tail.next = head;
+            head.prev = other.tail;
+        }
+        other.tail = tail;
+        other.size += size;
+        head = null;
+        tail = null;
+        size = 0;
+    }
+}
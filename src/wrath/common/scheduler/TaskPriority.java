@@ -0,0 +1,47 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+/**
+ * Enumerator to describe how important a {@link wrath.common.scheduler.Task} is.
+ * Within a tick, tasks are run from the highest priority to the lowest.
+ * @author Trent Spears
+ */
+public enum TaskPriority
+{
+    /**
+     * Gameplay-critical tasks. Always run on their tick, even when the tick is over budget.
+     */
+    CRITICAL,
+    /**
+     * Important tasks that should run before regular work.
+     */
+    HIGH,
+    /**
+     * Regular tasks. This is the default.
+     */
+    NORMAL,
+    /**
+     * Tasks that can wait for more important work.
+     */
+    LOW,
+    /**
+     * Housekeeping tasks that may be skipped. A best-effort task that misses its deadline is dropped instead of being run late.
+     */
+    BEST_EFFORT;
+}
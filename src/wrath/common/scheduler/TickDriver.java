@@ -0,0 +1,254 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+import java.util.concurrent.locks.LockSupport;
+import wrath.common.Closeable;
+
+/**
+ * Drives a {@link wrath.common.scheduler.Scheduler} or {@link wrath.common.scheduler.ShardedScheduler} at a fixed rate on its own thread.
+ * Tick times are counted from when the driver started rather than from the end of the previous tick, so the rate does not drift.
+ * After a stall the driver runs ticks back to back to catch up, up to a limit, and skips whatever is left over.
+ * @author Trent Spears
+ */
+public class TickDriver implements Closeable
+{
+    private static final long SPIN_THRESHOLD = 200000;
+    
+    private final Scheduler scheduler;
+    private final Runnable target;
+    private final long period;
+    private volatile int maxCatchUp = 5;
+    private volatile boolean running = false;
+    private Thread thread = null;
+    
+    private volatile long tickCount = 0;
+    private volatile long skipped = 0;
+    private volatile long lastDuration = 0;
+    private volatile long maxDuration = 0;
+    private volatile long totalDuration = 0;
+    private volatile long lag = 0;
+    
+    /**
+     * Constructor.
+     * @param scheduler The {@link wrath.common.scheduler.Scheduler} to tick.
+     * @param ticksPerSecond The amount of ticks to run per second, for example 20 or 60.
+     */
+    public TickDriver(Scheduler scheduler, int ticksPerSecond)
+    {
+        this(scheduler, scheduler::onTick, ticksPerSecond);
+    }
+    
+    /**
+     * Constructor.
+     * @param scheduler The {@link wrath.common.scheduler.ShardedScheduler} to tick.
+     * @param ticksPerSecond The amount of ticks to run per second, for example 20 or 60.
+     */
+    public TickDriver(ShardedScheduler scheduler, int ticksPerSecond)
+    {
+        this(null, scheduler::onTick, ticksPerSecond);
+    }
+    
+    private TickDriver(Scheduler scheduler, Runnable target, int ticksPerSecond)
+    {
+        this.scheduler = scheduler;
+        this.target = target;
+        this.period = 1000000000L / Math.max(1, ticksPerSecond);
+    }
+    
+    /**
+     * Stops the driver and waits for the tick in progress to finish.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        Thread t = thread;
+        if(t == null) return;
+        LockSupport.unpark(t);
+        if(t != Thread.currentThread())
+        {
+            try
+            {
+                t.join();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+    }
+    
+    /**
+     * Gets the average time spent in {@link wrath.common.scheduler.Scheduler#onTick()}.
+     * @return Returns the average tick duration in nanoseconds.
+     */
+    public long getAverageTickDuration()
+    {
+        long count = tickCount;
+        return count == 0 ? 0 : totalDuration / count;
+    }
+    
+    /**
+     * Gets how far behind schedule the driver was after the last tick.
+     * @return Returns the lag in nanoseconds, 0 if the driver is on time.
+     */
+    public long getLag()
+    {
+        return lag;
+    }
+    
+    /**
+     * Gets the time spent in the last {@link wrath.common.scheduler.Scheduler#onTick()}.
+     * @return Returns the last tick duration in nanoseconds.
+     */
+    public long getLastTickDuration()
+    {
+        return lastDuration;
+    }
+    
+    /**
+     * Gets the maximum amount of ticks that are run back to back to catch up after a stall.
+     * @return Returns the maximum amount of catch-up ticks.
+     */
+    public int getMaxCatchUpTicks()
+    {
+        return maxCatchUp;
+    }
+    
+    /**
+     * Gets the longest time spent in a single {@link wrath.common.scheduler.Scheduler#onTick()}.
+     * @return Returns the maximum tick duration in nanoseconds.
+     */
+    public long getMaxTickDuration()
+    {
+        return maxDuration;
+    }
+    
+    /**
+     * Gets the {@link wrath.common.scheduler.Scheduler} being driven.
+     * @return Returns the {@link wrath.common.scheduler.Scheduler} being driven, null if driving a {@link wrath.common.scheduler.ShardedScheduler}.
+     */
+    public Scheduler getScheduler()
+    {
+        return scheduler;
+    }
+    
+    /**
+     * Gets the amount of ticks that were dropped because the driver fell too far behind.
+     * @return Returns the amount of skipped ticks.
+     */
+    public long getSkippedTickCount()
+    {
+        return skipped;
+    }
+    
+    /**
+     * Gets the amount of ticks run since the driver was started.
+     * @return Returns the amount of ticks run.
+     */
+    public long getTickCount()
+    {
+        return tickCount;
+    }
+    
+    /**
+     * Gets the target length of a tick.
+     * @return Returns the target tick period in nanoseconds.
+     */
+    public long getTickPeriod()
+    {
+        return period;
+    }
+    
+    /**
+     * Returns true if the driver is currently running.
+     * @return Returns whether or not the driver is running.
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+    
+    private void loop()
+    {
+        long next = System.nanoTime();
+        while(running)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                target.run();
+            }
+            catch(RuntimeException e)
+            {
+                System.err.println("Exception thrown while ticking the Scheduler!");
+                e.printStackTrace();
+            }
+            long end = System.nanoTime();
+            
+            long duration = end - start;
+            lastDuration = duration;
+            totalDuration += duration;
+            if(duration > maxDuration) maxDuration = duration;
+            tickCount++;
+            
+            next += period;
+            long behind = end - next;
+            long cap = maxCatchUp * period;
+            if(behind > cap)
+            {
+                long drop = (behind - cap) / period + 1;
+                skipped += drop;
+                next += drop * period;
+                behind -= drop * period;
+            }
+            lag = Math.max(0, behind);
+            
+            long wait;
+            while(running && (wait = next - System.nanoTime()) > 0)
+            {
+                if(wait > SPIN_THRESHOLD) LockSupport.parkNanos(this, wait - SPIN_THRESHOLD / 2);
+                else Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Sets the maximum amount of ticks that are run back to back to catch up after a stall.
+     * Any further missed ticks are skipped and counted in {@link #getSkippedTickCount()}.
+     * @param ticks The maximum amount of catch-up ticks. Default 5.
+     */
+    public void setMaxCatchUpTicks(int ticks)
+    {
+        maxCatchUp = Math.max(0, ticks);
+    }
+    
+    /**
+     * Starts ticking the {@link wrath.common.scheduler.Scheduler} on a new thread.
+     * Does nothing if the driver is already running. Stop it with {@link #close()}.
+     */
+    public void start()
+    {
+        if(running) return;
+        running = true;
+        thread = new Thread(this::loop, "Wrath Tick Driver");
+        thread.start();
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.scheduler;
+
+/**
+ * Internal hierarchical timing wheel used by the {@link wrath.common.scheduler.Scheduler} to store pending tasks.
+ * The first level has one slot per tick for the next 256 ticks, every level above it has 64 slots that each cover a whole turn of the level below.
+ * Tasks further away than the top level can reach are kept in an overflow list that is re-sorted every time the top level wraps around.
+ * Inserting and expiring a task are both constant time and never allocate.
+ * @author Trent Spears
+ */
+final class TimingWheel
+{
+    private static final int ROOT_BITS = 8;
+    private static final int ROOT_SIZE = 1 << ROOT_BITS;
+    private static final int ROOT_MASK = ROOT_SIZE - 1;
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (ROOT_BITS + LEVELS * LEVEL_BITS);
+    
+    private final TaskList[] root = new TaskList[ROOT_SIZE];
+    private final TaskList[][] levels = new TaskList[LEVELS][LEVEL_SIZE];
+    private final TaskList overflow = new TaskList();
+    private final TaskList cascade = new TaskList();
+    private long now = 0;
+    
+    TimingWheel()
+    {
+        for(int i = 0; i < ROOT_SIZE; i++) root[i] = new TaskList();
+        for(TaskList[] level : levels)
+            for(int i = 0; i < LEVEL_SIZE; i++) level[i] = new TaskList();
+    }
+    
+    /**
+     * Moves the wheel forward to the specified tick, moving every task due on that tick into the specified list.
+     * Must be called once for every tick, in order.
+     * @param tick The tick the wheel is moving to.
+     * @param out The {@link wrath.common.scheduler.TaskList} to add the due tasks to.
+     */
+    void advance(long tick, TaskList out)
+    {
+        now = tick;
+        if((tick & ROOT_MASK) == 0)
+        {
+            int level = 0;
+            int index;
+            do
+            {
+                index = (int) ((tick >>> (ROOT_BITS + level * LEVEL_BITS)) & LEVEL_MASK);
+                reinsert(levels[level][index]);
+                level++;
+            }
+            while(index == 0 && level < LEVELS);
+            
+            if(index == 0 && level == LEVELS) reinsert(overflow);
+        }
+        root[(int) (tick & ROOT_MASK)].transferTo(out);
+    }
+    
+    /**
+     * Gets the tick the wheel was last advanced to.
+     * @return Returns the tick the wheel was last advanced to.
+     */
+    long getCurrentTick()
+    {
+        return now;
+    }
+    
+    /**
+     * Adds a task to the wheel, to be expired on the specified tick.
+     * @param t The task to add. Must not currently be in any list.
+     * @param tick The tick to expire the task on. Must be after the current tick of the wheel.
+     */
+    void schedule(Task t, long tick)
+    {
+        t.expiry = tick;
+        long delta = tick - now;
+        if(delta < ROOT_SIZE)
+        {
+            root[(int) (tick & ROOT_MASK)].add(t);
+            return;
+        }
+        
+        if(delta >= MAX_SPAN)
+        {
+            overflow.add(t);
+            return;
+        }
+        
+        int level = 0;
+        while(delta >= 1L << (ROOT_BITS + (level + 1) * LEVEL_BITS)) level++;
+        levels[level][(int) ((tick >>> (ROOT_BITS + level * LEVEL_BITS)) & LEVEL_MASK)].add(t);
+    }
+    
+    private void reinsert(TaskList list)
+    {
+        list.transferTo(cascade);
+        Task t;
+        while((t = cascade.poll()) != null) schedule(t, t.expiry);
+    }
+}
@@ -19,6 +19,7 @@ package wrath.common.scripts;
 
 /**
  * Interface to handle all events that occur in Script Managers.
+ * Only the events that are needed have to be overridden.
  * @author Trent Spears
  */
 public interface ScriptEventHandler
@@ -28,19 +29,19 @@ public interface ScriptEventHandler
      * @param scriptManager The {@link wrath.common.scripts.ScriptManager} where this event occurs.
      * @param script The {@link wrath.common.scripts.Script} that is affected.
      */
-    public abstract void onScriptCompile(ScriptManager scriptManager, Script script);
+    public default void onScriptCompile(ScriptManager scriptManager, Script script) {}
   
     /**
      * Called when a script is executed.
      * @param scriptManager The {@link wrath.common.scripts.ScriptManager} where this event occurs.
      * @param script The {@link wrath.common.scripts.Script} that is affected.
      */
-    public abstract void onScriptExecute(ScriptManager scriptManager, Script script);
+    public default void onScriptExecute(ScriptManager scriptManager, Script script) {}
   
     /**
      * Called when a script object is created.
      * @param scriptManager The {@link wrath.common.scripts.ScriptManager} where this event occurs.
      * @param script The {@link wrath.common.scripts.Script} that is affected.
      */
-    public abstract void onScriptLoad(ScriptManager scriptManager, Script script);
+    public default void onScriptLoad(ScriptManager scriptManager, Script script) {}
 }
@@ -19,6 +19,7 @@ package wrath.common.scripts;
 
 import java.io.File;
 import java.util.ArrayList;
+import wrath.common.EventBus;
 import wrath.util.Config;
 import wrath.util.Logger;
 
@@ -31,7 +32,10 @@ public abstract class ScriptManager
     public static final Logger SCRIPT_LOGGER = new Logger(new File("etc/logs/scripting.log"));
     public static final Config SCRIPT_CONFIG = new Config(new File("etc/configs/scriping.cfg"));
     private static final ArrayList<ScriptManager> mgrList = new ArrayList<>();
-    private static final ArrayList<ScriptEventHandler> handlers = new ArrayList<>();
+    private static final EventBus<ScriptEventHandler> handlers = new EventBus<>(ScriptEventHandler.class);
+    private static final int EVENT_COMPILE = handlers.getEvent("onScriptCompile");
+    private static final int EVENT_EXECUTE = handlers.getEvent("onScriptExecute");
+    private static final int EVENT_LOAD = handlers.getEvent("onScriptLoad");
     private static RootScriptEventHandler rootHandler;
     
     /**
@@ -57,6 +61,15 @@ public abstract class ScriptManager
         handlers.add(handler);
     }
     
+    /**
+     * Gets the {@link wrath.common.EventBus} of {@link wrath.common.scripts.ScriptEventHandler}s, to subscribe listeners with {@link wrath.common.EventSubscriber} methods.
+     * @return Returns the {@link wrath.common.EventBus} of script events.
+     */
+    public static EventBus<ScriptEventHandler> getScriptEventBus()
+    {
+        return handlers;
+    }
+    
     /**
      * Gets the {@link wrath.util.Config} associated with all Script Managers.
      * @return Returns the {@link wrath.util.Config} associated with all Script Managers.
@@ -187,28 +200,19 @@ public abstract class ScriptManager
         @Override
         public void onScriptCompile(ScriptManager scriptManager, Script script)
         {
-            handlers.stream().forEach((han) -> 
-            {
-                han.onScriptCompile(scriptManager, script);
-            });
+            for(ScriptEventHandler han : handlers.getHandlers(EVENT_COMPILE)) han.onScriptCompile(scriptManager, script);
         }
 
         @Override
         public void onScriptExecute(ScriptManager scriptManager, Script script)
         {
-            handlers.stream().forEach((han) -> 
-            {
-                han.onScriptExecute(scriptManager, script);
-            });
+            for(ScriptEventHandler han : handlers.getHandlers(EVENT_EXECUTE)) han.onScriptExecute(scriptManager, script);
         }
 
         @Override
         public void onScriptLoad(ScriptManager scriptManager, Script script)
         {
-            handlers.stream().forEach((han) -> 
-            {
-                han.onScriptLoad(scriptManager, script);
-            });
+            for(ScriptEventHandler han : handlers.getHandlers(EVENT_LOAD)) han.onScriptLoad(scriptManager, script);
         }
     }
 }
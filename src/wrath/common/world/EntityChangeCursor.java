@@ -0,0 +1,156 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.world;
+
+import java.util.Arrays;
+import wrath.common.Closeable;
+import wrath.common.entities.Entity;
+
+/**
+ * Reads which entities of a {@link wrath.common.world.World} changed, and which of their fields changed, since the last time it was polled.
+ * Every consumer of changes, such as a renderer or a network layer, opens its own cursor with {@link wrath.common.world.World#openChangeCursor()},
+ * so polling one cursor never hides changes from another. All cursors read the same change log of the World, which only keeps the changes some cursor has not read yet.
+ * A cursor must be polled regularly or closed. A cursor that falls too far behind is sent every entity of the World, with every field changed, on its next poll.
+ * @author Trent Spears
+ */
+public final class EntityChangeCursor implements Closeable
+{
+    private final World world;
+    
+    // Read and written by the World
+    long position;
+    boolean overflowed = false;
+    
+    private Entity[] entities = new Entity[16];
+    private int[] fields = new int[16];
+    private int count = 0;
+    private int[] marks = new int[64];
+    private int[] indexes = new int[64];
+    private int mark = 0;
+    private boolean closed = false;
+    
+    /**
+     * Constructor.
+     * @param world The {@link wrath.common.world.World} to read the changes of.
+     * @param position The position in the World's change log to start reading from.
+     */
+    EntityChangeCursor(World world, long position)
+    {
+        this.world = world;
+        this.position = position;
+    }
+    
+    /**
+     * Stops reading changes, so the World no longer keeps them for this cursor.
+     */
+    @Override
+    public void close()
+    {
+        if(closed) return;
+        closed = true;
+        world.closeChangeCursor(this);
+    }
+    
+    /**
+     * Gets the fields of a changed entity that changed.
+     * @param index The index of the changed entity, from 0 to {@link #getCount()} - 1.
+     * @return Returns a mask of the CHANGE_ constants of {@link wrath.common.entities.Entity} of the fields that changed.
+     */
+    public int getChangedFields(int index)
+    {
+        return fields[index];
+    }
+    
+    /**
+     * Gets the amount of entities that changed, as of the last {@link #poll()}.
+     * @return Returns the amount of changed entities.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+    
+    /**
+     * Gets one of the entities that changed, as of the last {@link #poll()}. Each entity is listed once.
+     * @param index The index of the changed entity, from 0 to {@link #getCount()} - 1.
+     * @return Returns the changed {@link wrath.common.entities.Entity}.
+     */
+    public Entity getEntity(int index)
+    {
+        return entities[index];
+    }
+    
+    /**
+     * Gets the {@link wrath.common.world.World} this cursor reads the changes of.
+     * @return Returns the {@link wrath.common.world.World} of this cursor.
+     */
+    public World getWorld()
+    {
+        return world;
+    }
+    
+    /**
+     * Reads the changes made since the last poll, or since the cursor was opened. Entities that have left the World since they changed are left out.
+     * Nothing is allocated once the cursor has seen its largest batch of changes.
+     * @return Returns the amount of entities that changed, always 0 once the cursor is closed.
+     */
+    public int poll()
+    {
+        Arrays.fill(entities, 0, count, null);
+        count = 0;
+        if(closed) return 0;
+        if(++mark == 0)
+        {
+            Arrays.fill(marks, 0);
+            mark = 1;
+        }
+        world.readChanges(this);
+        return count;
+    }
+    
+    /**
+     * Adds a change read from the World's change log, merging it with an earlier change of the same entity.
+     * @param entity The {@link wrath.common.entities.Entity} that changed.
+     * @param changed The mask of the fields that changed.
+     */
+    void collect(Entity entity, int changed)
+    {
+        int slot = entity.getWorldSlot();
+        if(slot >= marks.length)
+        {
+            int length = Math.max(slot + 1, marks.length * 2);
+            marks = Arrays.copyOf(marks, length);
+            indexes = Arrays.copyOf(indexes, length);
+        }
+        if(marks[slot] == mark)
+        {
+            fields[indexes[slot]] |= changed;
+            return;
+        }
+        
+        marks[slot] = mark;
+        indexes[slot] = count;
+        if(count == entities.length)
+        {
+            entities = Arrays.copyOf(entities, count * 2);
+            fields = Arrays.copyOf(fields, count * 2);
+        }
+        entities[count] = entity;
+        fields[count++] = changed;
+    }
+}
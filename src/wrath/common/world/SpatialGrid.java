@@ -0,0 +1,554 @@
+/**
+ *  Wrath Engine 
+ *  Copyright (C) 2015  Trent Spears
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package wrath.common.world;
+
+import java.util.Arrays;
+import java.util.List;
+import wrath.common.entities.Entity;
+import wrath.common.entities.EntityStore;
+
+/**
+ * Uniform grid over the X/Z plane of a {@link wrath.common.world.World} that finds entities near a point without looking at every entity.
+ * Each entity is kept in the cell its location falls in. The grid is updated as entities move, and only does work when an entity crosses into another cell.
+ * Cells cover the full height of the World; queries still test the Y-axis exactly.
+ * The cell size is aligned with {@link wrath.common.world.TerrainTile#TILE_DIMENSION}, so cell edges always line up with tile edges.
+ * Cells are dropped once enough of them are empty, so a World whose entities wander does not keep every cell they ever passed through.
+ * Queries may run on several threads at once, each thread has its own scratch buffers, as long as no entity of the World is added, removed or moved while they run.
+ * @author Trent Spears
+ */
+public final class SpatialGrid
+{
+    /**
+     * The cell size used by default, an eighth of a {@link wrath.common.world.TerrainTile}.
+     */
+    public static final float DEFAULT_CELL_SIZE = TerrainTile.TILE_DIMENSION / 8f;
+    
+    private final World world;
+    private final float cellSize;
+    private final float inverseCellSize;
+    
+    private long[] keys = new long[64];
+    private Cell[] cells = new Cell[64];
+    private int cellCount = 0;
+    private int emptyCells = 0;
+    
+    private Cell[] cellOf = new Cell[64];
+    private int[] indexInCell = new int[64];
+    private int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+    
+    private final ThreadLocal<Hits> hits = ThreadLocal.withInitial(Hits::new);
+    
+    /**
+     * Constructor.
+     * @param world The {@link wrath.common.world.World} to index.
+     * @param cellSize The width of each cell. Must divide {@link wrath.common.world.TerrainTile#TILE_DIMENSION} evenly or be a whole multiple of it.
+     */
+    SpatialGrid(World world, float cellSize)
+    {
+        float ratio = cellSize < TerrainTile.TILE_DIMENSION ? TerrainTile.TILE_DIMENSION / cellSize : cellSize / TerrainTile.TILE_DIMENSION;
+        if(cellSize <= 0 || Math.abs(ratio - Math.round(ratio)) > 1e-4f)
+            throw new IllegalArgumentException("SpatialGrid cell size " + cellSize + " is not aligned with the terrain tile size " + TerrainTile.TILE_DIMENSION + "!");
+        
+        this.world = world;
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+    }
+    
+    /**
+     * Gets the width of each cell.
+     * @return Returns the width of each cell.
+     */
+    public float getCellSize()
+    {
+        return cellSize;
+    }
+    
+    /**
+     * Adds every entity within a box to a list.
+     * @param minX The lowest X-coordinate of the box.
+     * @param minY The lowest Y-coordinate of the box.
+     * @param minZ The lowest Z-coordinate of the box.
+     * @param maxX The highest X-coordinate of the box.
+     * @param maxY The highest Y-coordinate of the box.
+     * @param maxZ The highest Z-coordinate of the box.
+     * @param out The list to add the entities to.
+     * @return Returns the amount of entities added.
+     */
+    public int queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, List<Entity> out)
+    {
+        EntityStore store = world.getEntityStore();
+        float[] xs = store.getColumn(EntityStore.X), ys = store.getColumn(EntityStore.Y), zs = store.getColumn(EntityStore.Z);
+        int found = 0;
+        int cx0 = Math.max(cell(minX), this.minX), cx1 = Math.min(cell(maxX), this.maxX);
+        int cz0 = Math.max(cell(minZ), this.minZ), cz1 = Math.min(cell(maxZ), this.maxZ);
+        for(int cx = cx0; cx <= cx1; cx++)
+            for(int cz = cz0; cz <= cz1; cz++)
+            {
+                Cell c = find(key(cx, cz));
+                if(c == null) continue;
+                for(int i = 0; i < c.size; i++)
+                {
+                    int s = c.slots[i];
+                    if(xs[s] >= minX && xs[s] <= maxX && ys[s] >= minY && ys[s] <= maxY && zs[s] >= minZ && zs[s] <= maxZ)
+                    {
+                        out.add(world.getEntity(s));
+                        found++;
+                    }
+                }
+            }
+        return found;
+    }
+    
+    /**
+     * Adds the nearest entities to a point to a list, closest first.
+     * @param x The X-coordinate of the point.
+     * @param y The Y-coordinate of the point.
+     * @param z The Z-coordinate of the point.
+     * @param k The most entities to find.
+     * @param maxDistance The furthest an entity may be from the point. Set to {@link java.lang.Float#POSITIVE_INFINITY} for no limit.
+     * @param out The list to add the entities to.
+     * @return Returns the amount of entities added.
+     */
+    public int queryNearest(float x, float y, float z, int k, float maxDistance, List<Entity> out)
+    {
+        if(k <= 0 || cellCount == 0) return 0;
+        EntityStore store = world.getEntityStore();
+        float[] xs = store.getColumn(EntityStore.X), ys = store.getColumn(EntityStore.Y), zs = store.getColumn(EntityStore.Z);
+        Hits h = hits.get();
+        h.count = 0;
+        float limit = maxDistance * maxDistance;
+        
+        int ox = cell(x), oz = cell(z);
+        int maxRing = Math.max(Math.max(ox - minX, maxX - ox), Math.max(oz - minZ, maxZ - oz));
+        for(int ring = 0; ring <= maxRing; ring++)
+        {
+            // Everything in this ring or further out is at least this far away on the X/Z plane.
+            float ringDistance = (ring - 1) * cellSize;
+            if(ring > 0 && ringDistance * ringDistance > limit) break;
+            if(h.count == k && ring > 0 && ringDistance * ringDistance > h.distances[0]) break;
+            
+            for(int cx = ox - ring; cx <= ox + ring; cx++)
+            {
+                boolean edge = cx == ox - ring || cx == ox + ring;
+                for(int cz = oz - ring; cz <= oz + ring; cz += edge ? 1 : 2 * ring)
+                {
+                    Cell c = find(key(cx, cz));
+                    if(c == null) continue;
+                    for(int i = 0; i < c.size; i++)
+                    {
+                        int s = c.slots[i];
+                        float dx = xs[s] - x, dy = ys[s] - y, dz = zs[s] - z;
+                        float d = dx * dx + dy * dy + dz * dz;
+                        if(d > limit) continue;
+                        if(h.count < k) h.push(s, d);
+                        else if(d < h.distances[0]) h.replaceTop(s, d);
+                    }
+                }
+            }
+        }
+        
+        h.sort();
+        for(int i = 0; i < h.count; i++) out.add(world.getEntity(h.slots[i]));
+        return h.count;
+    }
+    
+    /**
+     * Adds every entity within a distance of a point to a list.
+     * @param x The X-coordinate of the point.
+     * @param y The Y-coordinate of the point.
+     * @param z The Z-coordinate of the point.
+     * @param radius The furthest an entity may be from the point.
+     * @param out The list to add the entities to.
+     * @return Returns the amount of entities added.
+     */
+    public int queryRadius(float x, float y, float z, float radius, List<Entity> out)
+    {
+        EntityStore store = world.getEntityStore();
+        float[] xs = store.getColumn(EntityStore.X), ys = store.getColumn(EntityStore.Y), zs = store.getColumn(EntityStore.Z);
+        float radiusSquared = radius * radius;
+        int found = 0;
+        int cx0 = Math.max(cell(x - radius), minX), cx1 = Math.min(cell(x + radius), maxX);
+        int cz0 = Math.max(cell(z - radius), minZ), cz1 = Math.min(cell(z + radius), maxZ);
+        for(int cx = cx0; cx <= cx1; cx++)
+            for(int cz = cz0; cz <= cz1; cz++)
+            {
+                Cell c = find(key(cx, cz));
+                if(c == null) continue;
+                for(int i = 0; i < c.size; i++)
+                {
+                    int s = c.slots[i];
+                    float dx = xs[s] - x, dy = ys[s] - y, dz = zs[s] - z;
+                    if(dx * dx + dy * dy + dz * dz <= radiusSquared)
+                    {
+                        out.add(world.getEntity(s));
+                        found++;
+                    }
+                }
+            }
+        return found;
+    }
+    
+    /**
+     * Adds every entity hit by a ray to a list, closest first. Each entity is treated as a sphere around its location.
+     * The cells are walked along the ray, so only the cells the ray passes near are looked at.
+     * @param x The X-coordinate of the start of the ray.
+     * @param y The Y-coordinate of the start of the ray.
+     * @param z The Z-coordinate of the start of the ray.
+     * @param dx The X-component of the direction of the ray.
+     * @param dy The Y-component of the direction of the ray.
+     * @param dz The Z-component of the direction of the ray.
+     * @param maxDistance The length of the ray.
+     * @param radius The radius of the sphere around each entity.
+     * @param out The list to add the entities to.
+     * @return Returns the amount of entities added.
+     */
+    public int queryRay(float x, float y, float z, float dx, float dy, float dz, float maxDistance, float radius, List<Entity> out)
+    {
+        float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if(length == 0 || cellCount == 0) return 0;
+        dx /= length;
+        dy /= length;
+        dz /= length;
+        
+        EntityStore store = world.getEntityStore();
+        float[] xs = store.getColumn(EntityStore.X), ys = store.getColumn(EntityStore.Y), zs = store.getColumn(EntityStore.Z);
+        float radiusSquared = radius * radius;
+        int reach = (int) Math.ceil(radius * inverseCellSize);
+        Hits h = hits.get();
+        h.count = 0;
+        h.nextStamp(store.size());
+        
+        // Walk the cells the ray crosses on the X/Z plane, one cell boundary at a time.
+        int cx = cell(x), cz = cell(z);
+        int stepX = dx > 0 ? 1 : -1, stepZ = dz > 0 ? 1 : -1;
+        float tDeltaX = dx != 0 ? Math.abs(cellSize / dx) : Float.POSITIVE_INFINITY;
+        float tDeltaZ = dz != 0 ? Math.abs(cellSize / dz) : Float.POSITIVE_INFINITY;
+        float tMaxX = dx != 0 ? ((dx > 0 ? cx + 1 : cx) * cellSize - x) / dx : Float.POSITIVE_INFINITY;
+        float tMaxZ = dz != 0 ? ((dz > 0 ? cz + 1 : cz) * cellSize - z) / dz : Float.POSITIVE_INFINITY;
+        float t = 0;
+        while(t <= maxDistance)
+        {
+            if(cx + reach < minX && stepX < 0 || cx - reach > maxX && stepX > 0 || cz + reach < minZ && stepZ < 0 || cz - reach > maxZ && stepZ > 0) break;
+            
+            for(int ncx = cx - reach; ncx <= cx + reach; ncx++)
+                for(int ncz = cz - reach; ncz <= cz + reach; ncz++)
+                {
+                    Cell c = find(key(ncx, ncz));
+                    if(c == null) continue;
+                    for(int i = 0; i < c.size; i++)
+                    {
+                        int s = c.slots[i];
+                        if(h.stamps[s] == h.stamp) continue;
+                        h.stamps[s] = h.stamp;
+                        
+                        float px = xs[s] - x, py = ys[s] - y, pz = zs[s] - z;
+                        float along = px * dx + py * dy + pz * dz;
+                        float offSquared = px * px + py * py + pz * pz - along * along;
+                        if(offSquared > radiusSquared) continue;
+                        float half = (float) Math.sqrt(radiusSquared - offSquared);
+                        float hit = along - half;
+                        if(hit < 0) hit = along + half >= 0 ? 0 : -1;
+                        if(hit >= 0 && hit <= maxDistance) h.add(s, hit);
+                    }
+                }
+            
+            if(tMaxX < tMaxZ)
+            {
+                t = tMaxX;
+                tMaxX += tDeltaX;
+                cx += stepX;
+            }
+            else
+            {
+                t = tMaxZ;
+                tMaxZ += tDeltaZ;
+                cz += stepZ;
+            }
+        }
+        
+        h.sort();
+        for(int i = 0; i < h.count; i++) out.add(world.getEntity(h.slots[i]));
+        return h.count;
+    }
+    
+    /**
+     * Checks every entity and moves it to the right cell. Needed after locations are written straight into the {@link wrath.common.entities.EntityStore} columns.
+     */
+    public void refresh()
+    {
+        for(int s = 0, n = world.getEntityStore().size(); s < n; s++) update(s);
+    }
+    
+    // Updates from the World
+    
+    /**
+     * Adds the entity in a new slot of the {@link wrath.common.entities.EntityStore} to its cell.
+     * @param slot The slot of the entity.
+     */
+    void add(int slot)
+    {
+        if(slot >= cellOf.length)
+        {
+            int length = Math.max(cellOf.length * 2, slot + 1);
+            cellOf = Arrays.copyOf(cellOf, length);
+            indexInCell = Arrays.copyOf(indexInCell, length);
+        }
+        EntityStore store = world.getEntityStore();
+        insert(slot, cellAt(cell(store.get(slot, EntityStore.X)), cell(store.get(slot, EntityStore.Z))));
+    }
+    
+    /**
+     * Removes the entity in a slot, and moves the entity in the last slot into it, the same way {@link wrath.common.entities.EntityStore#remove(int)} does.
+     * @param slot The slot of the entity to remove.
+     * @param last The last slot in use.
+     */
+    void remove(int slot, int last)
+    {
+        take(slot);
+        if(slot == last) return;
+        
+        Cell c = cellOf[last];
+        int i = indexInCell[last];
+        c.slots[i] = slot;
+        cellOf[slot] = c;
+        indexInCell[slot] = i;
+        cellOf[last] = null;
+    }
+    
+    /**
+     * Moves an entity to the cell its location is in, if it is no longer in the same one.
+     * @param slot The slot of the entity.
+     */
+    void update(int slot)
+    {
+        EntityStore store = world.getEntityStore();
+        int cx = cell(store.get(slot, EntityStore.X)), cz = cell(store.get(slot, EntityStore.Z));
+        Cell current = cellOf[slot];
+        if(current != null && current.x == cx && current.z == cz) return;
+        if(current != null) take(slot);
+        insert(slot, cellAt(cx, cz));
+    }
+    
+    // Internal
+    
+    private int cell(float coordinate)
+    {
+        return (int) Math.floor(coordinate * inverseCellSize);
+    }
+    
+    private static long key(int cx, int cz)
+    {
+        return ((long) cx << 32) | (cz & 0xffffffffL);
+    }
+    
+    private static int hash(long key)
+    {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+    
+    private Cell find(long key)
+    {
+        int mask = cells.length - 1;
+        for(int i = hash(key) & mask; cells[i] != null; i = (i + 1) & mask)
+            if(keys[i] == key) return cells[i];
+        return null;
+    }
+    
+    private Cell cellAt(int cx, int cz)
+    {
+        long key = key(cx, cz);
+        Cell c = find(key);
+        if(c != null) return c;
+        
+        if(cellCount * 2 >= cells.length) rehash(cells.length * 2);
+        c = new Cell(cx, cz);
+        int mask = cells.length - 1;
+        int i = hash(key) & mask;
+        while(cells[i] != null) i = (i + 1) & mask;
+        keys[i] = key;
+        cells[i] = c;
+        cellCount++;
+        emptyCells++;
+        minX = Math.min(minX, cx);
+        maxX = Math.max(maxX, cx);
+        minZ = Math.min(minZ, cz);
+        maxZ = Math.max(maxZ, cz);
+        return c;
+    }
+    
+    /**
+     * Rebuilds the cell table with a new capacity, leaving out the empty cells and shrinking the bounds to the cells that are left.
+     * @param capacity The new capacity, a power of two.
+     */
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        Cell[] oldCells = cells;
+        keys = new long[capacity];
+        cells = new Cell[capacity];
+        cellCount = 0;
+        emptyCells = 0;
+        minX = minZ = Integer.MAX_VALUE;
+        maxX = maxZ = Integer.MIN_VALUE;
+        int mask = capacity - 1;
+        for(int j = 0; j < oldCells.length; j++)
+        {
+            Cell c = oldCells[j];
+            if(c == null || c.size == 0) continue;
+            int i = hash(oldKeys[j]) & mask;
+            while(cells[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            cells[i] = c;
+            cellCount++;
+            minX = Math.min(minX, c.x);
+            maxX = Math.max(maxX, c.x);
+            minZ = Math.min(minZ, c.z);
+            maxZ = Math.max(maxZ, c.z);
+        }
+    }
+    
+    private void insert(int slot, Cell c)
+    {
+        if(c.size == 0) emptyCells--;
+        if(c.size == c.slots.length) c.slots = Arrays.copyOf(c.slots, c.size * 2);
+        c.slots[c.size] = slot;
+        cellOf[slot] = c;
+        indexInCell[slot] = c.size++;
+    }
+    
+    private void take(int slot)
+    {
+        Cell c = cellOf[slot];
+        int i = indexInCell[slot];
+        int moved = c.slots[--c.size];
+        c.slots[i] = moved;
+        indexInCell[moved] = i;
+        cellOf[slot] = null;
+        
+        // Empty cells are dropped in bulk once they are half of all cells, so each one costs O(1) on average.
+        if(c.size == 0 && ++emptyCells > 64 && emptyCells * 2 > cellCount)
+        {
+            int capacity = 64;
+            while(capacity < (cellCount - emptyCells) * 4) capacity *= 2;
+            rehash(capacity);
+        }
+    }
+    
+    private static final class Cell
+    {
+        private final int x;
+        private final int z;
+        private int[] slots = new int[4];
+        private int size = 0;
+        
+        private Cell(int x, int z)
+        {
+            this.x = x;
+            this.z = z;
+        }
+    }
+    
+    /**
+     * Scratch buffers of the queries of one thread.
+     */
+    private static final class Hits
+    {
+        private int[] slots = new int[16];
+        private float[] distances = new float[16];
+        private int count = 0;
+        private int[] stamps = new int[64];
+        private int stamp = 0;
+        
+        private void add(int slot, float distance)
+        {
+            if(count == slots.length)
+            {
+                slots = Arrays.copyOf(slots, count * 2);
+                distances = Arrays.copyOf(distances, count * 2);
+            }
+            slots[count] = slot;
+            distances[count++] = distance;
+        }
+        
+        /**
+         * Starts a new stamp, so each entity is only tested once per query.
+         * @param size The amount of slots in use.
+         */
+        private void nextStamp(int size)
+        {
+            if(stamps.length < size) stamps = Arrays.copyOf(stamps, Math.max(size, stamps.length * 2));
+            if(++stamp == 0)
+            {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+        
+        /**
+         * Adds a hit to the max-heap of the k nearest entities, where the furthest hit is at the top.
+         */
+        private void push(int slot, float distance)
+        {
+            add(slot, distance);
+            int i = count - 1;
+            while(i > 0)
+            {
+                int parent = (i - 1) / 2;
+                if(distances[parent] >= distances[i]) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+        
+        private void replaceTop(int slot, float distance)
+        {
+            slots[0] = slot;
+            distances[0] = distance;
+            int i = 0;
+            while(true)
+            {
+                int largest = i, left = 2 * i + 1, right = left + 1;
+                if(left < count && distances[left] > distances[largest]) largest = left;
+                if(right < count && distances[right] > distances[largest]) largest = right;
+                if(largest == i) return;
+                swap(i, largest);
+                i = largest;
+            }
+        }
+        
+        /**
+         * Sorts the hits from closest to furthest. Hit counts are small, so an insertion sort is used.
+         */
+        private void sort()
+        {
+            for(int i = 1; i < count; i++)
+                for(int j = i; j > 0 && distances[j - 1] > distances[j]; j--) swap(j, j - 1);
+        }
+        
+        private void swap(int a, int b)
+        {
+            int s = slots[a];
+            slots[a] = slots[b];
+            slots[b] = s;
+            float d = distances[a];
+            distances[a] = distances[b];
+            distances[b] = d;
+        }
+    }
+}
@@ -25,9 +25,12 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import wrath.common.EventBus;
 import wrath.common.entities.Entity;
+import wrath.common.entities.EntityStore;
 
 /**
  * Class to track Worlds and a convenient class to carry/save data.
@@ -35,8 +38,9 @@ import wrath.common.entities.Entity;
  */
 public class World implements Serializable
 {
-    private static transient final ArrayList<WorldEventHandler> handlerList = new ArrayList<>();
+    private static transient final EventBus<WorldEventHandler> handlerList = new EventBus<>(WorldEventHandler.class);
     private static transient RootWorldEventHandler roothandler;
+    private static final int EVENT_ENTITIES_CHANGED = Entity.getEntityEventBus().getEvent("onEntitiesChanged");
     
     /**
      * Adds a {@link wrath.common.world.WorldEventHandler} to handle events that occur in any World.
@@ -48,6 +52,15 @@ public class World implements Serializable
         handlerList.add(handler);
     }
     
+    /**
+     * Gets the {@link wrath.common.EventBus} of {@link wrath.common.world.WorldEventHandler}s, to subscribe listeners with {@link wrath.common.EventSubscriber} methods.
+     * @return Returns the {@link wrath.common.EventBus} of world events.
+     */
+    public static EventBus<WorldEventHandler> getWorldEventBus()
+    {
+        return handlerList;
+    }
+    
     /**
      * Gets the root instance of {@link wrath.common.world.WorldEventHandler} to report events to.
      * @return Returns the root instance of {@link wrath.common.world.WorldEventHandler} to report events to.
@@ -61,6 +74,16 @@ public class World implements Serializable
     
     private String name;
     private final ArrayList<Entity> entities = new ArrayList<>();
+    private transient ArrayList<EntityChangeCursor> cursors = null;
+    private transient Entity[] changeLog = null;
+    private transient int[] changeLogFields = null;
+    private transient int changeLogSize = 0;
+    private transient long changeLogStart = 0;
+    private transient long readLimit = 0;
+    private transient long[] lastChange = null;
+    private transient EntityChangeCursor eventCursor = null;
+    private transient EntityStore store = new EntityStore();
+    private transient SpatialGrid grid = null;
     private final WorldType type;
     
     private World(String worldName, WorldType type)
@@ -89,6 +112,21 @@ public class World implements Serializable
     private World afterLoad()
     {
         if(roothandler == null) roothandler = new RootWorldEventHandler();
+        if(cursors == null)
+        {
+            cursors = new ArrayList<>();
+            changeLog = new Entity[64];
+            changeLogFields = new int[64];
+            lastChange = new long[Math.max(64, entities.size())];
+            Arrays.fill(lastChange, -1);
+            eventCursor = openChangeCursor();
+        }
+        if(store == null)
+        {
+            store = new EntityStore(entities.size());
+            for(Entity e : entities) e.attachToWorld(this, store.add(e.getLocation(), e.getOrientation(), e.getSizeScale(), e.getSpeed()));
+        }
+        if(grid == null) setSpatialCellSize(SpatialGrid.DEFAULT_CELL_SIZE);
         return this;
     }
     
@@ -97,6 +135,92 @@ public class World implements Serializable
         
     }
     
+    /**
+     * Adds an {@link wrath.common.entities.Entity} to this World, removing it from the World it was in.
+     * @param entity The {@link wrath.common.entities.Entity} to add.
+     */
+    public void addEntity(Entity entity)
+    {
+        if(entity.getWorld() == this) return;
+        if(entity.getWorld() != null) entity.getWorld().removeEntity(entity);
+        
+        int slot = store.add(entity.getLocation(), entity.getOrientation(), entity.getSizeScale(), entity.getSpeed());
+        entity.attachToWorld(this, slot);
+        entities.add(entity);
+        grid.add(slot);
+        if(slot >= lastChange.length) lastChange = Arrays.copyOf(lastChange, Math.max(slot + 1, lastChange.length * 2));
+        lastChange[slot] = -1;
+        queueEntityChange(entity, Entity.CHANGE_SLOT);
+    }
+    
+    /**
+     * Stops keeping changes for a cursor. Called by {@link wrath.common.world.EntityChangeCursor#close()}.
+     * @param cursor The {@link wrath.common.world.EntityChangeCursor} that was closed.
+     */
+    void closeChangeCursor(EntityChangeCursor cursor)
+    {
+        if(cursors.remove(cursor)) trimChangeLog();
+    }
+    
+    /**
+     * Tells every {@link wrath.common.entities.events.EntityEventHandler} which entities of this World changed since the last call, and which of their fields changed.
+     * Should be called once at the end of every tick. Listeners get a single {@link wrath.common.entities.events.EntityEventHandler#onEntitiesChanged(wrath.common.world.World, wrath.common.entities.Entity[], int[])}
+     * call for the whole tick, and nothing is allocated when no entities changed or nobody is listening.
+     * The changes are read through an {@link wrath.common.world.EntityChangeCursor} of the World's own, so other cursors still see them.
+     */
+    public void flushEntityChanges()
+    {
+        int count = eventCursor.poll();
+        if(count == 0 || Entity.getEntityEventBus().isEmpty(EVENT_ENTITIES_CHANGED)) return;
+        
+        Entity[] changed = new Entity[count];
+        int[] fields = new int[count];
+        int reported = 0;
+        for(int i = 0; i < count; i++)
+        {
+            int f = eventCursor.getChangedFields(i) & Entity.CHANGE_ALL;
+            if(f == 0) continue;
+            changed[reported] = eventCursor.getEntity(i);
+            fields[reported++] = f;
+        }
+        if(reported == 0) return;
+        if(reported < count)
+        {
+            changed = Arrays.copyOf(changed, reported);
+            fields = Arrays.copyOf(fields, reported);
+        }
+        Entity.getEntityEventHandler().onEntitiesChanged(this, changed, fields);
+    }
+    
+    /**
+     * Gets an {@link wrath.common.entities.Entity} of this World by its index. Indexes change when entities are removed.
+     * @param slot The index of the entity, from 0 to {@link #getEntityCount()} - 1.
+     * @return Returns the {@link wrath.common.entities.Entity} at the specified index.
+     */
+    public Entity getEntity(int slot)
+    {
+        return entities.get(slot);
+    }
+    
+    /**
+     * Gets the amount of entities in this World.
+     * @return Returns the amount of entities in this World.
+     */
+    public int getEntityCount()
+    {
+        return entities.size();
+    }
+    
+    /**
+     * Gets the {@link wrath.common.entities.EntityStore} holding the state of the entities of this World, for systems that update many entities at once.
+     * Slot i of the store belongs to {@link #getEntity(int)} i.
+     * @return Returns the {@link wrath.common.entities.EntityStore} of this World.
+     */
+    public EntityStore getEntityStore()
+    {
+        return store;
+    }
+    
     /**
      * Gets the name of this World.
      * @return Returns the name of this World.
@@ -106,6 +230,15 @@ public class World implements Serializable
         return name;
     }
     
+    /**
+     * Gets the {@link wrath.common.world.SpatialGrid} used to find the entities of this World by location.
+     * @return Returns the {@link wrath.common.world.SpatialGrid} of this World.
+     */
+    public SpatialGrid getSpatialGrid()
+    {
+        return grid;
+    }
+    
     /**
      * Gets the type of World this is, as defined by {@link wrath.common.world.WorldType}.
      * @return Returns the type of World.
@@ -115,6 +248,91 @@ public class World implements Serializable
         return type;
     }
     
+    /**
+     * Opens a new {@link wrath.common.world.EntityChangeCursor} that reads the changes made to the entities of this World from now on.
+     * The cursor must be closed once it is no longer polled.
+     * @return Returns the new {@link wrath.common.world.EntityChangeCursor}.
+     */
+    public EntityChangeCursor openChangeCursor()
+    {
+        EntityChangeCursor cursor = new EntityChangeCursor(this, changeLogStart + changeLogSize);
+        readLimit = cursor.position;
+        cursors.add(cursor);
+        return cursor;
+    }
+    
+    /**
+     * Do not call! For internal use only!
+     * Adds a change of an entity of this World to the change log, for every open {@link wrath.common.world.EntityChangeCursor} to read.
+     * If no cursor has read the entity's last entry yet, the change is merged into it, so an entity has at most one unread entry.
+     * @param entity The {@link wrath.common.entities.Entity} that changed.
+     * @param fields The mask of the CHANGE_ constants of the fields that changed.
+     */
+    public void queueEntityChange(Entity entity, int fields)
+    {
+        if(cursors.isEmpty()) return;
+        int slot = entity.getWorldSlot();
+        long last = lastChange[slot];
+        if(last >= readLimit)
+        {
+            changeLogFields[(int) (last - changeLogStart)] |= fields;
+            return;
+        }
+        
+        if(changeLogSize == changeLog.length) growChangeLog();
+        changeLog[changeLogSize] = entity;
+        changeLogFields[changeLogSize] = fields;
+        lastChange[slot] = changeLogStart + changeLogSize++;
+    }
+    
+    /**
+     * Hands a cursor every change it has not read yet. Called by {@link wrath.common.world.EntityChangeCursor#poll()}.
+     * Entries of entities that have since left the World are skipped here, so removing an entity never has to search the log.
+     * @param cursor The {@link wrath.common.world.EntityChangeCursor} to read the changes.
+     */
+    void readChanges(EntityChangeCursor cursor)
+    {
+        long end = changeLogStart + changeLogSize;
+        if(cursor.overflowed)
+        {
+            cursor.overflowed = false;
+            for(int i = 0; i < entities.size(); i++) cursor.collect(entities.get(i), Entity.CHANGE_ALL | Entity.CHANGE_SLOT);
+        }
+        else
+        {
+            for(int i = (int) (cursor.position - changeLogStart); i < changeLogSize; i++)
+                if(changeLog[i].getWorld() == this) cursor.collect(changeLog[i], changeLogFields[i]);
+        }
+        cursor.position = end;
+        readLimit = end;
+        trimChangeLog();
+    }
+    
+    /**
+     * Removes an {@link wrath.common.entities.Entity} from this World.
+     * The last entity of the World takes the index of the removed one, and is marked with {@link wrath.common.entities.Entity#CHANGE_SLOT}. None of its fields are reported as changed.
+     * @param entity The {@link wrath.common.entities.Entity} to remove.
+     * @return Returns true if the entity was in this World, otherwise false.
+     */
+    public boolean removeEntity(Entity entity)
+    {
+        if(entity.getWorld() != this) return false;
+        
+        int slot = entity.getWorldSlot();
+        entity.attachToWorld(null, -1);
+        grid.remove(slot, store.size() - 1);
+        store.remove(slot);
+        Entity last = entities.remove(entities.size() - 1);
+        if(last != entity)
+        {
+            entities.set(slot, last);
+            lastChange[slot] = lastChange[entities.size()];
+            last.attachToWorld(this, slot);
+            last.markChanged(Entity.CHANGE_SLOT);
+        }
+        return true;
+    }
+    
     /**
      * Saves the World and all data in a compressed format to the previously specified {java.io.File}.
      */
@@ -154,6 +372,66 @@ public class World implements Serializable
         }
     }
     
+    /**
+     * Rebuilds the {@link wrath.common.world.SpatialGrid} of this World with a different cell size.
+     * @param cellSize The width of each cell. Must divide {@link wrath.common.world.TerrainTile#TILE_DIMENSION} evenly or be a whole multiple of it.
+     */
+    public void setSpatialCellSize(float cellSize)
+    {
+        grid = new SpatialGrid(this, cellSize);
+        for(int i = 0; i < store.size(); i++) grid.add(i);
+    }
+    
+    /**
+     * Do not call! For internal use only!
+     * Moves an entity to the right cell of the {@link wrath.common.world.SpatialGrid} after its location changed.
+     * @param entity The {@link wrath.common.entities.Entity} that moved.
+     */
+    public void updateEntityLocation(Entity entity)
+    {
+        grid.update(entity.getWorldSlot());
+    }
+    
+    /**
+     * Makes room in the change log. If the changes only some cursors have read have piled up, because another cursor is not being polled,
+     * the cursors that are behind are marked to be sent every entity on their next poll, and those changes are dropped instead.
+     */
+    private void growChangeLog()
+    {
+        if(readLimit - changeLogStart > entities.size() + 1024)
+        {
+            for(int i = 0; i < cursors.size(); i++)
+            {
+                EntityChangeCursor c = cursors.get(i);
+                if(c.position >= readLimit) continue;
+                c.overflowed = true;
+                c.position = readLimit;
+            }
+            trimChangeLog();
+            if(changeLogSize < changeLog.length) return;
+        }
+        changeLog = Arrays.copyOf(changeLog, changeLog.length * 2);
+        changeLogFields = Arrays.copyOf(changeLogFields, changeLog.length);
+    }
+    
+    /**
+     * Drops the entries of the change log every open cursor has read.
+     */
+    private void trimChangeLog()
+    {
+        long oldest = changeLogStart + changeLogSize;
+        for(int i = 0; i < cursors.size(); i++) oldest = Math.min(oldest, cursors.get(i).position);
+        int read = (int) (oldest - changeLogStart);
+        if(read == 0) return;
+        
+        int left = changeLogSize - read;
+        System.arraycopy(changeLog, read, changeLog, 0, left);
+        System.arraycopy(changeLogFields, read, changeLogFields, 0, left);
+        Arrays.fill(changeLog, left, changeLogSize, null);
+        changeLogSize = left;
+        changeLogStart = oldest;
+    }
+    
     
     //Static Methods
     
@@ -176,7 +454,7 @@ public class World implements Serializable
         
         try
         {
-            is = new ObjectInputStream((in = new GZIPInputStream(new FileInputStream(file))));
+            is = new ObjectInputStream((in = new GZIPInputStream((fis = new FileInputStream(file)))));
             Object genObj = is.readObject();
             if(genObj instanceof World) ret = (World) genObj;
         }
@@ -185,17 +463,13 @@ public class World implements Serializable
             System.err.println("Could not load World! I/O Error!");
         }
         
-        if(in == null || fis == null || is == null)
-        {
-            System.err.println("Could not load World! Streams could not bind!");
-            return ret;
-        }
+        if(in == null || fis == null || is == null) System.err.println("Could not load World! Streams could not bind!");
         
         try
         {
-            is.close();
-            in.close();
-            fis.close();
+            if(is != null) is.close();
+            else if(in != null) in.close();
+            else if(fis != null) fis.close();
         }
         catch(IOException e)
         {